@@ -1,5 +1,8 @@
 package com.example.extraction.config;
 
+import com.example.extraction.service.MinioService;
+import com.example.messaging.idempotency.ProcessedMessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.minio.MinioClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -24,4 +27,13 @@ public class MinioConfig {
                 .credentials(accessKey, secretKey)
                 .build();
     }
+    
+    // Marker dei messaggi gia' elaborati in files/{fileId}/processed/ (consumer idempotenti)
+    @Bean
+    public ProcessedMessageStore processedMessageStore(MinioService minioService, MeterRegistry meterRegistry,
+                                                       @Value("${dedup.enabled:true}") boolean enabled,
+                                                       @Value("${dedup.cache-size:10000}") int cacheSize,
+                                                       @Value("${dedup.remote-check:redelivered}") String remoteCheck) {
+        return new ProcessedMessageStore(minioService, meterRegistry, enabled, cacheSize, remoteCheck);
+    }
 }
@@ -1,23 +1,67 @@
 package com.example.extraction.config;
 
+import com.example.messaging.amqp.ChunkShards;
+import com.example.messaging.amqp.ExtractionLanes;
+import com.example.messaging.amqp.MessageConverters;
+import com.example.messaging.amqp.QueueArgumentsMigrator;
+import com.example.messaging.amqp.RequestQueues;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.ContainerCustomizer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RabbitMQConfig {
     
+    // Listener per corsia (ExtractionLanes): extraction-lane-{lane}
+    public static final String LANE_LISTENER_PREFIX = "extraction-lane-";
+    
+    // Coda di ritardo di ogni coda di richiesta per i job rimandati dall'admission control
+    public static final String DEFERRED_SUFFIX = ".deferred";
+    
+    // Code di richiesta con gli stessi argomenti in tutti i servizi (rabbitmq.queue.*)
+    private final RequestQueues requestQueues;
+    
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
     
     @Value("${rabbitmq.queue.extraction-requests}")
     private String extractionRequestsQueue;
     
+    @Value("${rabbitmq.routing-key.extraction-request}")
+    private String extractionRequestKey;
+    
+    @Value("${rabbitmq.max-priority:10}")
+    private int maxPriority;
+    
+    @Value("${rabbitmq.queue.indexing-chunks}")
+    private String indexingChunksQueue;
+    
+    @Value("${rabbitmq.routing-key.indexing-chunks}")
+    private String indexingChunksKey;
+    
+    @Value("${indexing.chunks.shards:4}")
+    private int chunkShards;
+    
+    @Value("${extraction.admission.retry-delay-ms:5000}")
+    private int admissionRetryDelayMs;
+    
+    public RabbitMQConfig(Environment environment) {
+        this.requestQueues = RequestQueues.from(environment);
+    }
+    
     // Exchange
     @Bean
     public TopicExchange exchange() {
@@ -27,22 +71,132 @@ public class RabbitMQConfig {
     // Queue
     @Bean
     public Queue extractionRequestsQueue() {
-        return QueueBuilder.durable(extractionRequestsQueue)
-                .withArgument("x-message-ttl", 300000)
-                .build();
+        return requestQueues.queue(extractionRequestsQueue, false);
+    }
+    
+    // Lane queues (one per document class)
+    @Bean
+    public Declarables extractionLaneQueues() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (String lane : ExtractionLanes.LANES) {
+            Queue queue = requestQueues.queue(extractionRequestsQueue + "." + lane, true);
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange()).with(extractionRequestKey + "." + lane));
+        }
+        return new Declarables(declarables);
+    }
+    
+    // Admission control: a deferred request waits retry-delay-ms on {queue}.deferred and is
+    // then dead-lettered back to its queue through the default exchange
+    @Bean
+    @ConditionalOnProperty(name = "extraction.admission.enabled", havingValue = "true")
+    public Declarables extractionDeferredQueues() {
+        List<String> targets = new ArrayList<>();
+        targets.add(extractionRequestsQueue);
+        ExtractionLanes.LANES.forEach(lane -> targets.add(extractionRequestsQueue + "." + lane));
+        
+        List<Declarable> declarables = new ArrayList<>();
+        for (String target : targets) {
+            declarables.add(QueueBuilder.durable(target + DEFERRED_SUFFIX)
+                    .ttl(admissionRetryDelayMs)
+                    .deadLetterExchange("")
+                    .deadLetterRoutingKey(target)
+                    .build());
+        }
+        return new Declarables(declarables);
+    }
+    
+    // Chunk streaming towards indexing-service, sharded by fileId (see ChunkShards):
+    // batches and seal of a document share shard and priority, so they are consumed in
+    // order by the single active consumer of the shard
+    @Bean
+    public Declarables indexingChunksQueues() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < chunkShards; shard++) {
+            Queue queue = QueueBuilder.durable(ChunkShards.name(indexingChunksQueue, shard))
+                    .maxPriority(maxPriority)
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange()).with(ChunkShards.name(indexingChunksKey, shard)));
+        }
+        return new Declarables(declarables);
+    }
+    
+    /**
+     * Prefetch per corsia (extraction.lanes.{lane}.prefetch); la concorrenza
+     * e' impostata direttamente sui listener di ExtractionRequestConsumer.
+     * Con extraction.batch.enabled i listener per messaggio delle corsie in
+     * extraction.batch.lanes non partono: le serve ExtractionBatchConsumer.
+     * Con extraction.pipeline.enabled l'ack dei listener per messaggio e' manuale:
+     * lo invia lo stadio store di ExtractionPipeline a job concluso
+     */
+    @Bean
+    public ContainerCustomizer<SimpleMessageListenerContainer> extractionLanePrefetch(Environment environment) {
+        boolean pipelineEnabled = environment.getProperty("extraction.pipeline.enabled", Boolean.class, false);
+        boolean batchEnabled = environment.getProperty("extraction.batch.enabled", Boolean.class, false);
+        List<String> batchLanes = List.of(environment.getProperty("extraction.batch.lanes", String[].class,
+                new String[] {"text"}));
+        return container -> {
+            String id = container.getListenerId();
+            if (pipelineEnabled && id != null
+                    && (id.startsWith(LANE_LISTENER_PREFIX) || id.equals("extraction-requests"))) {
+                container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+            }
+            if (id != null && id.startsWith(LANE_LISTENER_PREFIX)) {
+                String lane = id.substring(LANE_LISTENER_PREFIX.length());
+                Integer prefetch = environment.getProperty("extraction.lanes." + lane + ".prefetch", Integer.class);
+                if (prefetch != null) {
+                    container.setPrefetchCount(prefetch);
+                }
+                if (batchEnabled && batchLanes.contains(lane)) {
+                    container.setAutoStartup(false);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Batch listener delle corsie piccole (extraction.batch.enabled): fino a batch-size
+     * richieste per consegna, o quelle arrivate entro receive-timeout-ms, con ack manuale
+     */
+    @Bean
+    @ConditionalOnProperty(name = "extraction.batch.enabled", havingValue = "true")
+    public SimpleRabbitListenerContainerFactory extractionBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${extraction.batch.size:20}") int batchSize,
+            @Value("${extraction.batch.receive-timeout-ms:200}") long receiveTimeoutMs) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        factory.setPrefetchCount(batchSize);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+    
+    // Lane queues created before x-max-priority/DLX are migrated or reported on startup
+    @Bean
+    public QueueArgumentsMigrator queueArgumentsMigrator(ConnectionFactory connectionFactory,
+                                                         @Value("${rabbitmq.queue.migrate:false}") boolean migrate) {
+        return new QueueArgumentsMigrator(connectionFactory, migrate);
     }
     
-    // Message Converter
+    // Message Converter: JSON or CBOR by content_type, messaging.encoding for outgoing messages
+    // (logical type ids for the chunk stream, dispatched by type on indexing-service)
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${messaging.encoding:json}") String encoding) {
+        return MessageConverters.create(encoding);
     }
     
     // RabbitTemplate
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
-        template.setMessageConverter(jsonMessageConverter());
+        template.setMessageConverter(messageConverter);
         return template;
     }
 }
@@ -0,0 +1,168 @@
+package com.example.extraction.consumer;
+
+import com.example.extraction.service.ExtractionPipeline;
+import com.example.messaging.dto.ExtractionRequestMessage;
+import com.rabbitmq.client.Channel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Consumer delle richieste di estrazione in modalita' batch (extraction.batch.enabled),
+ * per le corsie di documenti piccoli (extraction.batch.lanes, default text): fino a
+ * batch-size richieste per consegna, o quelle arrivate entro receive-timeout-ms, elaborate
+ * in parallelo (download, Tika, upload e pubblicazione come per il singolo messaggio, vedi
+ * ExtractionRequestConsumer.process) e confermate una per una appena concluse.
+ * Una richiesta illeggibile viene rifiutata verso il dead-letter exchange; un errore
+ * imprevisto (non un'estrazione fallita, gia' pubblicata come FAILED) la rimette in coda.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "extraction.batch.enabled", havingValue = "true")
+public class ExtractionBatchConsumer implements RabbitListenerConfigurer {
+
+    public static final String BATCH_LISTENER_PREFIX = "extraction-batch-";
+
+    private final ExtractionRequestConsumer requestConsumer;
+    private final MessageConverter messageConverter;
+    private final Environment environment;
+    // Risolto per nome: il context ha anche la factory di default dei listener
+    private final SimpleRabbitListenerContainerFactory extractionBatchContainerFactory;
+
+    @Value("${rabbitmq.queue.extraction-requests}")
+    private String extractionRequestsQueue;
+
+    @Value("${extraction.batch.lanes:text}")
+    private List<String> lanes;
+
+    @Value("${extraction.batch.threads:8}")
+    private int threads;
+
+    private Executor workers;
+
+    @PostConstruct
+    public void start() {
+        // Con spring.threads.virtual.enabled (Java 21+) un virtual thread per richiesta;
+        // il parsing resta comunque limitato ai core da ExtractionPipeline
+        if (Threading.VIRTUAL.isActive(environment)) {
+            workers = new VirtualThreadTaskExecutor("extraction-batch-");
+            return;
+        }
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "extraction-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (String lane : lanes) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId(BATCH_LISTENER_PREFIX + lane);
+            endpoint.setQueueNames(extractionRequestsQueue + "." + lane);
+            endpoint.setMessageListener((ChannelAwareBatchMessageListener) this::handleExtractionBatch);
+            registrar.registerEndpoint(endpoint, extractionBatchContainerFactory);
+        }
+        log.info("📦 Extraction batch mode on lanes {}", lanes);
+    }
+
+    public void handleExtractionBatch(List<Message> messages, Channel channel) {
+        log.info("📥 Received extraction batch of {} requests", messages.size());
+
+        List<CompletableFuture<Void>> jobs = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ExtractionRequestMessage request = decode(message);
+            if (request == null) {
+                reply(channel, message, false, false);
+                continue;
+            }
+            MessageProperties properties = message.getMessageProperties();
+            jobs.add(CompletableFuture.runAsync(() -> {
+                try {
+                    ExtractionPipeline.await(requestConsumer.process(
+                            request, message, properties.getConsumerQueue(), properties.isRedelivered()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, workers).handle((ok, error) -> {
+                if (error != null) {
+                    log.error("❌ Unexpected error processing extraction of fileId: {}, requeued",
+                            request.getFileId(), error);
+                }
+                reply(channel, message, error == null, true);
+                return null;
+            }));
+        }
+        // Il container consegna il batch successivo solo dopo la conclusione di questo
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * Ack a elaborazione conclusa, altrimenti nack (requeue=false: dead-letter).
+     * I thread del batch condividono il canale del container
+     */
+    private void reply(Channel channel, Message message, boolean ack, boolean requeue) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        try {
+            synchronized (channel) {
+                if (ack) {
+                    channel.basicAck(deliveryTag, false);
+                } else {
+                    channel.basicNack(deliveryTag, false, requeue);
+                }
+            }
+        } catch (IOException e) {
+            log.error("❌ Could not acknowledge extraction request (delivery tag {})", deliveryTag, e);
+        }
+    }
+
+    /**
+     * Richiesta decodificata con il converter dei listener, null se illeggibile
+     */
+    private ExtractionRequestMessage decode(Message message) {
+        try {
+            MessageProperties properties = message.getMessageProperties();
+            properties.setInferredArgumentType(ExtractionRequestMessage.class);
+            return (ExtractionRequestMessage) messageConverter.fromMessage(message);
+        } catch (Exception e) {
+            log.error("❌ Unreadable extraction request", e);
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workers instanceof ExecutorService executor) {
+            executor.shutdown();
+        }
+    }
+}
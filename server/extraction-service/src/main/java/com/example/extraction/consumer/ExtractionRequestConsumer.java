@@ -1,21 +1,43 @@
 package com.example.extraction.consumer;
 
-import com.example.extraction.dto.ExtractionCompletedMessage;
-import com.example.extraction.dto.ExtractionRequestMessage;
+import com.example.extraction.config.RabbitMQConfig;
 import com.example.extraction.dto.ExtractionResult;
+import com.example.extraction.service.AdmissionController;
+import com.example.extraction.service.ArtifactWriter;
+import com.example.extraction.service.ChunkStreamPublisher;
+import com.example.extraction.service.ExtractionPipeline;
 import com.example.extraction.service.MinioService;
 import com.example.extraction.service.TikaExtractionService;
+import com.example.messaging.dto.ExtractionCompletedMessage;
+import com.example.messaging.dto.ExtractionRequestMessage;
+import com.example.messaging.dto.IndexingRequestMessage;
+import com.example.messaging.dto.StageStartedMessage;
+import com.example.messaging.idempotency.ProcessedMessageStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rabbitmq.client.Channel;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.io.TikaInputStream;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Consumer che ascolta le richieste di estrazione e processa i file
@@ -28,77 +50,364 @@ public class ExtractionRequestConsumer {
     private final MinioService minioService;
     private final TikaExtractionService tikaService;
     private final RabbitTemplate rabbitTemplate;
+    private final ChunkStreamPublisher chunkStreamPublisher;
+    private final ArtifactWriter artifactWriter;
+    private final AdmissionController admissionController;
+    private final ExtractionPipeline pipeline;
+    private final ProcessedMessageStore processedMessages;
     private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
     
+    private static final String DEFERRALS_HEADER = "x-admission-deferrals";
+    
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
     
+    @Value("${rabbitmq.queue.extraction-requests}")
+    private String extractionRequestsQueue;
+    
     @Value("${rabbitmq.routing-key.extraction-completed}")
     private String completedRoutingKey;
     
-    @RabbitListener(queues = "${rabbitmq.queue.extraction-requests}")
-    public void handleExtractionRequest(ExtractionRequestMessage message) {
-        String fileId = message.getFileId();
-        String originalFilename = message.getOriginalFilename();
-        log.info("📥 Received extraction request for fileId: {} (filename: {})", fileId, originalFilename);
-        
+    @Value("${rabbitmq.routing-key.indexing-request}")
+    private String indexingRequestKey;
+    
+    @Value("${rabbitmq.routing-key.extraction-started:extraction.started}")
+    private String startedRoutingKey;
+    
+    @Value("${pipeline.choreography.enabled:false}")
+    private boolean choreography;
+    
+    @Value("${extraction.streaming.enabled:false}")
+    private boolean streaming;
+    
+    @Value("${extraction.text.compress:false}")
+    private boolean compressText;
+    
+    // Testo fino a questa lunghezza (caratteri): chunk e metadati inline nei messaggi, 0 = mai
+    @Value("${extraction.inline.max-chars:65536}")
+    private int inlineMaxChars;
+    
+    /**
+     * Una coda per corsia (text, office, pdf, large), ciascuna con la propria
+     * concorrenza (e prefetch, vedi RabbitMQConfig): i PDF scansionati da centinaia di MB
+     * non bloccano i file di testo. La coda generica resta in ascolto per i messaggi
+     * pubblicati prima dell'introduzione delle corsie.
+     * Con extraction.admission.enabled ogni job riserva la memoria stimata prima di
+     * partire e, se il budget e' esaurito, viene ripubblicato sulla coda di ritardo
+     * {coda}.deferred, da cui rientra dopo retry-delay-ms (vedi AdmissionController).
+     * Una richiesta gia' elaborata (stesso documento e checksum, vedi ProcessedMessageStore)
+     * non viene ripetuta: si ripubblica l'esito registrato.
+     * Con extraction.batch.enabled le corsie di extraction.batch.lanes sono servite da
+     * ExtractionBatchConsumer e i loro listener per messaggio non partono.
+     * Con extraction.pipeline.enabled l'ack e' manuale (vedi RabbitMQConfig): il job passa
+     * alla pipeline e il messaggio viene confermato dallo stadio store, cosi' il prefetch
+     * tiene la pipeline piena mentre il listener preleva i successivi.
+     */
+    @RabbitListener(id = "extraction-requests", queues = "${rabbitmq.queue.extraction-requests}")
+    @RabbitListener(id = "extraction-lane-text", queues = "${rabbitmq.queue.extraction-requests}.text",
+            concurrency = "${extraction.lanes.text.concurrency:2-8}")
+    @RabbitListener(id = "extraction-lane-office", queues = "${rabbitmq.queue.extraction-requests}.office",
+            concurrency = "${extraction.lanes.office.concurrency:1-4}")
+    @RabbitListener(id = "extraction-lane-pdf", queues = "${rabbitmq.queue.extraction-requests}.pdf",
+            concurrency = "${extraction.lanes.pdf.concurrency:1-4}")
+    @RabbitListener(id = "extraction-lane-large", queues = "${rabbitmq.queue.extraction-requests}.large",
+            concurrency = "${extraction.lanes.large.concurrency:1-2}")
+    public void handleExtractionRequest(ExtractionRequestMessage message, Message amqpMessage, Channel channel,
+                                        @Header(AmqpHeaders.CONSUMER_QUEUE) String queue,
+                                        @Header(AmqpHeaders.REDELIVERED) boolean redelivered) throws Exception {
+        if (!pipeline.isEnabled()) {
+            ExtractionPipeline.await(process(message, amqpMessage, queue, redelivered));
+            return;
+        }
+        CompletableFuture<Void> done;
         try {
-            // 1. Trova il file su MinIO (cerca in files/{fileId}/original.*)
-            String minioPath = findOriginalFile(fileId);
-            log.info("Found file on MinIO: {}", minioPath);
-            
-            // 2. Download file da MinIO
-            InputStream fileStream = minioService.downloadFile(minioPath);
-            log.info("Downloaded file from MinIO");
-            
-            // 3. Estrai testo e metadati con Tika
-            TikaExtractionService.ExtractionResultData resultData = 
-                    tikaService.extractTextAndMetadata(fileStream);
-            
-            // 4. Aggiungi il filename originale ai metadati
-            if (originalFilename != null) {
-                resultData.metadata.put("filename", originalFilename);
-                log.info("Added original filename to metadata: {}", originalFilename);
+            done = process(message, amqpMessage, queue, redelivered);
+        } catch (Exception e) {
+            done = CompletableFuture.failedFuture(e);
+        }
+        long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+        done.whenComplete((ok, error) -> acknowledge(channel, deliveryTag, message.getFileId(), error));
+    }
+    
+    /**
+     * Ack manuale a job concluso (anche FAILED, gia' pubblicato); un errore imprevisto
+     * rimette il messaggio in coda. Gli stadi store condividono il canale del consumer
+     */
+    private void acknowledge(Channel channel, long deliveryTag, String fileId, Throwable error) {
+        try {
+            synchronized (channel) {
+                if (error == null) {
+                    channel.basicAck(deliveryTag, false);
+                } else {
+                    log.error("❌ Unexpected error processing extraction of fileId: {}, requeued", fileId, error);
+                    channel.basicNack(deliveryTag, false, true);
+                }
             }
-            
-            // 5. Crea ExtractionResult
-            ExtractionResult result = new ExtractionResult();
-            result.setFileId(fileId);
-            result.setFullText(resultData.fullText);
-            result.setChunks(resultData.chunks);
-            result.setMetadata(resultData.metadata);
-            result.setExtractedAt(LocalDateTime.now());
-            
-            // 5. Converti in JSON
-            String resultJson = objectMapper.writeValueAsString(result);
-            
-            // 6. Upload JSON su MinIO
-            String extractedPath = "files/" + fileId + "/extracted-text.json";
-            minioService.uploadJson(extractedPath, resultJson);
-            
-            // 7. Pubblica evento di completamento
-            ExtractionCompletedMessage completedMsg = new ExtractionCompletedMessage(
-                    fileId,
-                    "SUCCESS",
-                    resultData.chunks.size()
-            );
-            rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, completedMsg);
-            
-            log.info("✅ Extraction completed for fileId: {} ({} chunks)", 
-                    fileId, resultData.chunks.size());
-            
+        } catch (IOException e) {
+            // Canale chiuso (shutdown): il broker riconsegna il messaggio
+            log.warn("⚠️ Could not acknowledge extraction of fileId: {}", fileId, e);
+        }
+    }
+    
+    /**
+     * Elabora una richiesta ricevuta da queue (anche dal batch listener): i fallimenti
+     * dell'estrazione sono pubblicati come FAILED. Il future si completa a job concluso
+     * (subito senza pipeline): solo allora il messaggio va confermato
+     */
+    public CompletableFuture<Void> process(ExtractionRequestMessage message, Message amqpMessage, String queue,
+                                           boolean redelivered) throws InterruptedException {
+        ExtractionCompletedMessage processed = processedMessages.find("extraction", message.getFileId(),
+                ProcessedMessageStore.version(message.getChecksum(), message.getRequestId()),
+                redelivered || message.getAttempt() > 0, ExtractionCompletedMessage.class);
+        if (processed != null) {
+            log.info("🔁 Extraction request {} for fileId: {} already processed, republishing result",
+                    message.getRequestId(), message.getFileId());
+            rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, processed);
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        String lane = queue.startsWith(extractionRequestsQueue + ".")
+                ? queue.substring(extractionRequestsQueue.length() + 1)
+                : null;
+        long cost = admissionController.estimate(lane, message.getFileSize());
+        if (!admissionController.acquire(cost)) {
+            defer(amqpMessage, queue);
+            log.info("⏳ Deferred extraction of fileId: {} (estimated {} MB)", message.getFileId(), cost >> 20);
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            announceStart(message);
+            return extract(message).whenComplete((ok, error) -> admissionController.release(cost));
+        } catch (RuntimeException | InterruptedException e) {
+            admissionController.release(cost);
+            throw e;
+        }
+    }
+    
+    /**
+     * Ripubblica la richiesta invariata (priorita' compresa) sulla coda di ritardo: il
+     * messaggio originale viene confermato, cosi' non torna subito in testa alla coda
+     */
+    private void defer(Message amqpMessage, String queue) {
+        MessageProperties properties = amqpMessage.getMessageProperties();
+        Integer deferrals = properties.getHeader(DEFERRALS_HEADER);
+        properties.setHeader(DEFERRALS_HEADER, deferrals != null ? deferrals + 1 : 1);
+        rabbitTemplate.send("", queue + RabbitMQConfig.DEFERRED_SUFFIX, amqpMessage);
+    }
+    
+    // Presa in carico: da qui l'orchestrator misura la deadline dello StuckJobReaper
+    private void announceStart(ExtractionRequestMessage message) {
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, startedRoutingKey,
+                    new StageStartedMessage(message.getFileId(), "extraction", message.getRequestId()));
         } catch (Exception e) {
-            log.error("❌ Extraction failed for fileId: {}", fileId, e);
-            
-            // Pubblica evento di fallimento
-            ExtractionCompletedMessage failureMsg = new ExtractionCompletedMessage(
-                    fileId,
-                    "FAILED",
-                    0,
-                    e.getMessage()
-            );
-            rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, failureMsg);
+            log.warn("⚠️ Could not publish extraction start for fileId: {}", message.getFileId(), e);
+        }
+    }
+    
+    private CompletableFuture<Void> extract(ExtractionRequestMessage message) throws InterruptedException {
+        String fileId = message.getFileId();
+        log.info("📥 Received extraction request for fileId: {} (filename: {})", fileId, message.getOriginalFilename());
+        
+        // Streaming: i chunk partono verso l'indexing-service durante il parsing
+        Job job = new Job(message, streaming
+                ? chunkStreamPublisher.open(fileId, message.getOriginalFilename(), message.getPriority())
+                : null);
+        
+        CompletableFuture<Void> run;
+        if (pipeline.isEnabled()) {
+            // Download, parsing e upload su stadi separati (vedi ExtractionPipeline)
+            try {
+                run = pipeline.submit(job, this::fetch, this::parse, this::store);
+            } catch (RuntimeException | InterruptedException e) {
+                job.close();
+                throw e;
+            }
+        } else {
+            run = new CompletableFuture<>();
+            try {
+                pipeline.runInline(job, this::fetch, this::parse, this::store);
+                run.complete(null);
+            } catch (Exception e) {
+                run.completeExceptionally(e);
+            }
         }
+        return run.handle((ok, error) -> {
+            try {
+                if (error == null) {
+                    log.info("✅ Extraction completed for fileId: {} ({} chunks)",
+                            fileId, job.resultData.chunks.size());
+                } else {
+                    fail(job, ExtractionPipeline.unwrap(error));
+                }
+                return null;
+            } finally {
+                job.close();
+            }
+        });
+    }
+    
+    private void fail(Job job, Exception e) {
+        String fileId = job.message.getFileId();
+        log.error("❌ Extraction failed for fileId: {}", fileId, e);
+        
+        if (job.chunkStream != null) {
+            try {
+                job.chunkStream.abort();
+            } catch (Exception abortError) {
+                log.warn("⚠️ Could not abort chunk stream for fileId: {}", fileId, abortError);
+            }
+        }
+        
+        // Pubblica evento di fallimento
+        ExtractionCompletedMessage failureMsg = new ExtractionCompletedMessage(
+                fileId,
+                "FAILED",
+                0,
+                e.getMessage()
+        );
+        rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, failureMsg);
+    }
+    
+    /**
+     * Stadio I/O: individua l'originale su MinIO; con la pipeline lo scarica nello spool locale
+     */
+    private void fetch(Job job) throws IOException {
+        String fileId = job.message.getFileId();
+        
+        // 1. Percorso del file su MinIO (messaggi meno recenti: cerca in files/{fileId}/original.*)
+        String minioPath = job.message.getMinioPath() != null ? job.message.getMinioPath() : findOriginalFile(fileId);
+        log.info("Found file on MinIO: {}", minioPath);
+        
+        // 2. Download file da MinIO
+        if (pipeline.isEnabled()) {
+            job.spool = Files.createTempFile(pipeline.getSpoolDir(), fileId, ".spool");
+            try (InputStream in = minioService.downloadFile(minioPath)) {
+                Files.copy(in, job.spool, StandardCopyOption.REPLACE_EXISTING);
+            }
+            // Tika legge il file dallo spool (vedi parse), lo stream serve solo in streaming
+            if (job.chunkStream != null) {
+                job.source = TikaInputStream.get(job.spool);
+            }
+        } else {
+            job.source = minioService.downloadFile(minioPath);
+        }
+        log.info("Downloaded file from MinIO");
+    }
+    
+    /**
+     * Stadio CPU: Tika, chunking e serializzazione degli artefatti
+     */
+    private void parse(Job job) throws Exception {
+        String fileId = job.message.getFileId();
+        String originalFilename = job.message.getOriginalFilename();
+        
+        // 3. Estrai testo e metadati con Tika
+        TikaExtractionService.ExtractionResultData resultData;
+        if (job.chunkStream != null) {
+            resultData = tikaService.extractStreaming(job.source, job.chunkStream);
+        } else if (job.spool != null) {
+            resultData = tikaService.extractTextAndMetadata(job.spool);
+        } else {
+            resultData = tikaService.extractTextAndMetadata(job.source);
+        }
+        job.resultData = resultData;
+        
+        // 4. Aggiungi il filename originale ai metadati
+        if (originalFilename != null) {
+            resultData.metadata.put("filename", originalFilename);
+            log.info("Added original filename to metadata: {}", originalFilename);
+        }
+        
+        // 5. Crea ExtractionResult
+        ExtractionResult result = new ExtractionResult();
+        result.setFileId(fileId);
+        result.setFullText(resultData.fullText);
+        result.setChunks(resultData.chunks);
+        result.setMetadata(resultData.metadata);
+        result.setExtractedAt(LocalDateTime.now());
+        
+        // 5. Converti in JSON
+        job.resultJson = objectMapper.writeValueAsString(result);
+        
+        job.text = resultData.fullText.getBytes(StandardCharsets.UTF_8);
+        job.storedText = compressText ? gzip(job.text) : job.text;
+        job.inline = job.chunkStream == null && resultData.fullText.length() <= inlineMaxChars;
+    }
+    
+    /**
+     * Stadio I/O: upload degli artefatti e pubblicazione degli eventi
+     */
+    private void store(Job job) {
+        ExtractionRequestMessage message = job.message;
+        String fileId = message.getFileId();
+        TikaExtractionService.ExtractionResultData resultData = job.resultData;
+        
+        // 6. Upload su MinIO di JSON e testo (UTF-8) per il download della trascrizione.
+        //    Documenti piccoli: la scrittura procede in parallelo alla preparazione del
+        //    completamento e si attende prima di pubblicarlo (punto 7)
+        String textPath = "files/" + fileId + "/extracted-text.txt" + (compressText ? ".gz" : "");
+        CompletableFuture<Void> artifacts = job.inline
+                ? artifactWriter.writeAsync(fileId, job.resultJson, textPath, job.storedText, compressText)
+                : null;
+        if (artifacts == null) {
+            artifactWriter.write(fileId, job.resultJson, textPath, job.storedText, compressText);
+        }
+        
+        // 7. Pubblica evento di completamento
+        ExtractionCompletedMessage completedMsg = new ExtractionCompletedMessage(
+                fileId,
+                "SUCCESS",
+                resultData.chunks.size()
+        );
+        completedMsg.setTextPath(textPath);
+        completedMsg.setTextLength((long) job.text.length);
+        completedMsg.setTextEncoding(compressText ? "gzip" : "identity");
+        completedMsg.setPriority(message.getPriority());
+        completedMsg.setRequestId(message.getRequestId());
+        completedMsg.setChecksum(message.getChecksum());
+        if (artifacts != null) {
+            // Un errore di scrittura fa fallire l'estrazione come l'upload sincrono
+            artifacts.join();
+        }
+        // Streaming: il sigillo chiude il documento sull'indexing-service. Va prima di
+        // SUCCESS: se fallisce l'estrazione risulta FAILED (stream annullato), e un
+        // SUCCESS gia' registrato non viene mai ripubblicato senza sigillo
+        if (job.chunkStream != null) {
+            job.chunkStream.seal(resultData.metadata);
+        }
+        // Registrato ad artefatti scritti e prima della pubblicazione
+        // (senza il payload inline, che resta su MinIO)
+        processedMessages.record("extraction", fileId,
+                ProcessedMessageStore.version(message.getChecksum(), message.getRequestId()), completedMsg);
+        if (job.inline) {
+            completedMsg.setChunks(resultData.chunks);
+            completedMsg.setMetadata(resultData.metadata);
+        }
+        rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, completedMsg);
+        
+        // 8. Choreography: richiesta di indicizzazione senza passare dall'orchestrator
+        //    (che osserva solo extraction.completed / indexing.completed per gli stati)
+        if (job.chunkStream == null && choreography) {
+            IndexingRequestMessage indexingRequest = job.inline
+                    ? new IndexingRequestMessage(fileId, resultData.chunks, resultData.metadata)
+                    : new IndexingRequestMessage(fileId);
+            indexingRequest.setChecksum(message.getChecksum());
+            rabbitTemplate.convertAndSend(exchangeName, indexingRequestKey, indexingRequest, m -> {
+                if (message.getPriority() != null) {
+                    m.getMessageProperties().setPriority(message.getPriority());
+                }
+                return m;
+            });
+        }
+    }
+    
+    private byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
     }
     
     /**
@@ -126,4 +435,37 @@ public class ExtractionRequestConsumer {
         // (MinIO potrebbe avere il file salvato diversamente)
         throw new RuntimeException("Original file not found on MinIO for fileId: " + fileId);
     }
+    
+    /**
+     * Stato di un'estrazione passato da uno stadio al successivo
+     */
+    private static class Job {
+        private final ExtractionRequestMessage message;
+        private final ChunkStreamPublisher.Session chunkStream;
+        private Path spool;
+        private InputStream source;
+        private TikaExtractionService.ExtractionResultData resultData;
+        private String resultJson;
+        private byte[] text;
+        private byte[] storedText;
+        private boolean inline;
+        
+        private Job(ExtractionRequestMessage message, ChunkStreamPublisher.Session chunkStream) {
+            this.message = message;
+            this.chunkStream = chunkStream;
+        }
+        
+        private void close() {
+            try {
+                if (source != null) {
+                    source.close();
+                }
+                if (spool != null) {
+                    Files.deleteIfExists(spool);
+                }
+            } catch (IOException e) {
+                log.warn("⚠️ Could not clean up extraction of fileId: {}", message.getFileId(), e);
+            }
+        }
+    }
 }
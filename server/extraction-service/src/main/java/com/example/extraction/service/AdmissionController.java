@@ -0,0 +1,243 @@
+package com.example.extraction.service;
+
+import com.example.extraction.config.RabbitMQConfig;
+import com.example.messaging.amqp.ExtractionLanes;
+import com.sun.management.OperatingSystemMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Controllo di ammissione dei job di estrazione (extraction.admission.enabled):
+ * <ul>
+ *   <li>ogni job riserva una stima della memoria che usera' (base + dimensione del file
+ *       per il cost-factor della corsia); oltre il budget (heap-fraction dell'heap massimo)
+ *       il job attende fino a defer-timeout-ms e poi viene rimandato sulla coda di ritardo
+ *       della corsia (vedi ExtractionRequestConsumer). Un job piu' grande dell'intero budget
+ *       passa solo quando non c'e' altro in corso.</li>
+ *   <li>ogni interval-ms la concorrenza di ogni corsia viene adattata a CPU e heap:
+ *       -1 consumer sopra le soglie high, +1 sotto le soglie low se la coda ha arretrato,
+ *       sempre entro il min-max di extraction.lanes.{lane}.concurrency. L'heap considerato
+ *       e' quello rimasto dopo l'ultima GC, senza la garbage non ancora raccolta.</li>
+ * </ul>
+ * L'attesa usa un ReentrantLock e non un monitor: con i virtual thread un wait() dentro
+ * synchronized blocca anche il carrier thread.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdmissionController {
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final AmqpAdmin amqpAdmin;
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    private final OperatingSystemMXBean os =
+            (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final Map<String, Integer> laneConsumers = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+
+    @Value("${extraction.admission.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rabbitmq.queue.extraction-requests}")
+    private String extractionRequestsQueue;
+
+    @Value("${extraction.admission.heap-fraction:0.6}")
+    private double heapFraction;
+
+    @Value("${extraction.admission.base-cost-bytes:16777216}")
+    private long baseCostBytes;
+
+    @Value("${extraction.admission.default-file-size:1048576}")
+    private long defaultFileSize;
+
+    @Value("${extraction.admission.defer-timeout-ms:5000}")
+    private long deferTimeoutMs;
+
+    @Value("${extraction.admission.cpu-low:0.6}")
+    private double cpuLow;
+
+    @Value("${extraction.admission.cpu-high:0.9}")
+    private double cpuHigh;
+
+    @Value("${extraction.admission.heap-low:0.6}")
+    private double heapLow;
+
+    @Value("${extraction.admission.heap-high:0.85}")
+    private double heapHigh;
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("extraction.admission.reserved.bytes", this, c -> c.reserved()).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stima della memoria necessaria all'estrazione di un file
+     *
+     * @param lane corsia del messaggio, null per la coda generica
+     */
+    public long estimate(String lane, Long fileSize) {
+        double factor = environment.getProperty("extraction.lanes." + (lane != null ? lane : "office") + ".cost-factor",
+                Double.class, 8.0);
+        return baseCostBytes + (long) (factor * (fileSize != null ? fileSize : defaultFileSize));
+    }
+
+    /**
+     * Riserva costBytes nel budget di memoria, attendendo al massimo defer-timeout-ms
+     *
+     * @return false se il job va rimandato
+     */
+    public boolean acquire(long costBytes) throws InterruptedException {
+        if (!enabled) {
+            return true;
+        }
+        long budget = (long) (Runtime.getRuntime().maxMemory() * heapFraction);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(deferTimeoutMs);
+        lock.lock();
+        try {
+            while (reservedBytes > 0 && reservedBytes + costBytes > budget) {
+                if (remaining <= 0) {
+                    meterRegistry.counter("extraction.admission.deferred").increment();
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            reservedBytes += costBytes;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long costBytes) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            reservedBytes -= costBytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long reserved() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${extraction.admission.interval-ms:5000}")
+    public void adjustConcurrency() {
+        if (!enabled) {
+            return;
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        double heapRatio = heap.getMax() > 0 ? (double) liveHeap(heap) / heap.getMax() : 0;
+        double cpu = Math.max(os.getCpuLoad(), 0);
+        boolean overloaded = heapRatio > heapHigh || cpu > cpuHigh;
+        boolean idle = heapRatio < heapLow && cpu < cpuLow;
+
+        for (String lane : ExtractionLanes.LANES) {
+            MessageListenerContainer listener = listenerRegistry.getListenerContainer(RabbitMQConfig.LANE_LISTENER_PREFIX + lane);
+            if (!(listener instanceof SimpleMessageListenerContainer container) || !container.isRunning()) {
+                continue;
+            }
+            int[] bounds = concurrencyBounds(lane);
+            int current = laneConsumers.getOrDefault(lane, bounds[0]);
+            int target = current;
+            if (overloaded) {
+                target = Math.max(bounds[0], current - 1);
+            } else if (idle && current < bounds[1] && hasBacklog(lane)) {
+                target = current + 1;
+            }
+            if (target != current || !laneConsumers.containsKey(lane)) {
+                resize(container, current, target);
+                laneConsumers.put(lane, target);
+                if (target != current) {
+                    log.info("⚖️ Extraction lane {}: {} -> {} consumers (cpu {}%, heap {}%)",
+                            lane, current, target, Math.round(cpu * 100), Math.round(heapRatio * 100));
+                }
+            }
+        }
+    }
+
+    /**
+     * Heap occupato dopo l'ultima GC di ogni pool (eden vuoto, old gen con i soli oggetti
+     * vivi): l'uso istantaneo comprende la garbage e sale e scende a ogni ciclo di GC.
+     * Se la JVM non espone l'uso post-GC si ricade sull'uso corrente.
+     */
+    private long liveHeap(MemoryUsage heap) {
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc == null) {
+                return heap.getUsed();
+            }
+            live += afterGc.getUsed();
+        }
+        return live > 0 ? live : heap.getUsed();
+    }
+
+    /**
+     * Il controller gestisce la concorrenza: minimo e massimo del container coincidono
+     */
+    private void resize(SimpleMessageListenerContainer container, int current, int target) {
+        if (target > current) {
+            container.setMaxConcurrentConsumers(target);
+            container.setConcurrentConsumers(target);
+        } else {
+            container.setConcurrentConsumers(target);
+            container.setMaxConcurrentConsumers(target);
+        }
+    }
+
+    private boolean hasBacklog(String lane) {
+        QueueInformation info = amqpAdmin.getQueueInfo(extractionRequestsQueue + "." + lane);
+        return info != null && info.getMessageCount() > 0;
+    }
+
+    private int[] concurrencyBounds(String lane) {
+        String concurrency = environment.getProperty("extraction.lanes." + lane + ".concurrency", "1");
+        String[] parts = concurrency.split("-");
+        int min = Integer.parseInt(parts[0].trim());
+        int max = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : min;
+        return new int[] {min, max};
+    }
+}
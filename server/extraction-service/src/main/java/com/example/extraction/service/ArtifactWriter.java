@@ -0,0 +1,71 @@
+package com.example.extraction.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrive su MinIO gli artefatti dell'estrazione (extracted-text.json e la trascrizione).
+ * Per i documenti piccoli, il cui risultato viaggia inline nei messaggi, la scrittura parte
+ * in background e si sovrappone alla preparazione dei messaggi; il chiamante attende il
+ * futuro prima di pubblicare il completamento, cosi' ack ed eventi non precedono mai gli
+ * artefatti (che servono a download, re-indicizzazione e retry del reaper).
+ * Con la coda piena la scrittura avviene nel thread del chiamante.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ArtifactWriter {
+
+    private final MinioService minioService;
+
+    @Value("${extraction.inline.writer-threads:2}")
+    private int writerThreads;
+
+    @Value("${extraction.inline.writer-queue:1000}")
+    private int writerQueue;
+
+    private ThreadPoolExecutor writer;
+
+    @PostConstruct
+    public void start() {
+        writer = new ThreadPoolExecutor(writerThreads, writerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(writerQueue), r -> new Thread(r, "artifact-writer"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Carica JSON del risultato e trascrizione
+     */
+    public void write(String fileId, String resultJson, String textPath, byte[] text, boolean gzip) {
+        minioService.uploadJson("files/" + fileId + "/extracted-text.json", resultJson);
+        minioService.uploadText(textPath, text, gzip);
+    }
+
+    /**
+     * Come write(), in background: il futuro fallisce se la scrittura fallisce
+     */
+    public CompletableFuture<Void> writeAsync(String fileId, String resultJson, String textPath, byte[] text, boolean gzip) {
+        return CompletableFuture.runAsync(() -> write(fileId, resultJson, textPath, text, gzip), writer);
+    }
+
+    /**
+     * Completa le scritture in coda prima dello shutdown
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("⚠️ {} extraction artifacts not written before shutdown", writer.getQueue().size());
+            writer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.extraction.service;
+
+import com.example.messaging.amqp.ChunkShards;
+import com.example.messaging.dto.ChunkBatchMessage;
+import com.example.messaging.dto.ChunkSealMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Pubblica verso l'indexing-service i chunk prodotti durante il parsing
+ * (extraction.streaming.enabled): batch di batch-size chunk consecutivi, inline nel
+ * messaggio o, sopra inline-max-chars, in un segmento JSON su MinIO. Tutti i messaggi
+ * di un documento, sigillo compreso, vanno sullo stesso shard della coda (ChunkShards)
+ * e restano in ordine.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChunkStreamPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MinioService minioService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${rabbitmq.exchange.name}")
+    private String exchangeName;
+
+    @Value("${rabbitmq.routing-key.indexing-chunks}")
+    private String chunksRoutingKey;
+
+    @Value("${extraction.streaming.batch-size:50}")
+    private int batchSize;
+
+    @Value("${extraction.streaming.inline-max-chars:262144}")
+    private int inlineMaxChars;
+
+    @Value("${indexing.chunks.shards:4}")
+    private int shards;
+
+    public Session open(String fileId, String filename, Integer priority) {
+        return new Session(fileId, filename, priority);
+    }
+
+    /**
+     * Stream dei chunk di un singolo documento
+     */
+    public class Session implements Consumer<String> {
+
+        private final String fileId;
+        private final String filename;
+        private final String routingKey;
+        private final MessagePostProcessor withPriority;
+        private final List<String> batch = new ArrayList<>();
+        private int batchChars;
+        private int nextIndex;
+
+        private Session(String fileId, String filename, Integer priority) {
+            this.fileId = fileId;
+            this.filename = filename;
+            this.routingKey = ChunkShards.name(chunksRoutingKey, ChunkShards.shardOf(fileId, shards));
+            this.withPriority = m -> {
+                if (priority != null) {
+                    m.getMessageProperties().setPriority(priority);
+                }
+                return m;
+            };
+        }
+
+        @Override
+        public void accept(String chunk) {
+            batch.add(chunk);
+            batchChars += chunk.length();
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Pubblica i chunk accumulati
+         */
+        public void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            ChunkBatchMessage message = new ChunkBatchMessage();
+            message.setFileId(fileId);
+            message.setFilename(filename);
+            message.setFirstChunkIndex(nextIndex);
+            message.setTimestamp(LocalDateTime.now());
+
+            if (batchChars > inlineMaxChars) {
+                String segmentPath = "files/" + fileId + "/chunks/" + nextIndex + ".json";
+                try {
+                    minioService.uploadJson(segmentPath, objectMapper.writeValueAsString(batch));
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to write chunk segment " + segmentPath, e);
+                }
+                message.setSegmentPath(segmentPath);
+            } else {
+                message.setChunks(new ArrayList<>(batch));
+            }
+
+            rabbitTemplate.convertAndSend(exchangeName, routingKey, message, withPriority);
+            log.debug("📤 Streamed chunks {}-{} for fileId: {}", nextIndex, nextIndex + batch.size() - 1, fileId);
+
+            nextIndex += batch.size();
+            batch.clear();
+            batchChars = 0;
+        }
+
+        /**
+         * Ultimo messaggio del documento: numero totale di chunk e metadati Tika
+         */
+        public void seal(Map<String, String> metadata) {
+            flush();
+            ChunkSealMessage seal = new ChunkSealMessage(fileId, nextIndex, metadata, false, LocalDateTime.now());
+            rabbitTemplate.convertAndSend(exchangeName, routingKey, seal, withPriority);
+            log.info("🔒 Sealed chunk stream for fileId: {} ({} chunks)", fileId, nextIndex);
+        }
+
+        /**
+         * Estrazione fallita: l'indexing-service rimuove i chunk gia' pubblicati
+         */
+        public void abort() {
+            if (nextIndex == 0) {
+                return;
+            }
+            ChunkSealMessage seal = new ChunkSealMessage(fileId, nextIndex, null, true, LocalDateTime.now());
+            rabbitTemplate.convertAndSend(exchangeName, routingKey, seal, withPriority);
+            log.warn("⚠️ Aborted chunk stream for fileId: {} after {} chunks", fileId, nextIndex);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service per dividere il testo in chunk
@@ -16,6 +17,13 @@ public class ChunkingService {
     @Value("${extraction.chunk-size:5000}")
     private int chunkSize;
     
+    /**
+     * Handler SAX che produce gli stessi chunk mentre Tika estrae il testo
+     */
+    public StreamingChunkHandler streamingHandler(Consumer<String> chunkSink) {
+        return new StreamingChunkHandler(chunkSize, chunkSink);
+    }
+    
     /**
      * Dividi il testo in chunk di dimensione specificata
      * (CODICE IDENTICO DA google-like-search)
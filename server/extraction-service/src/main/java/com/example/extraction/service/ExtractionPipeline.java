@@ -0,0 +1,235 @@
+package com.example.extraction.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline a stadi dell'estrazione (extraction.pipeline.enabled):
+ * <pre>
+ *   fetch  (I/O)  download dell'originale nello spool locale
+ *   parse  (CPU)  Tika + chunking + serializzazione, un thread per core
+ *   store  (I/O)  upload degli artefatti e pubblicazione degli eventi
+ * </pre>
+ * Mentre un job e' in parsing gli altri scaricano o caricano, cosi' CPU e I/O lavorano
+ * in parallelo. Il listener AMQP consegna il job e torna a prelevare messaggi (ack manuale
+ * a store concluso): i job in corso sono al massimo prefetch per consumer, e comunque
+ * max-in-flight, oltre il quale il listener resta bloccato in submit.
+ * Per ogni stadio vengono esportati thread attivi, coda, attesa e durata.
+ * Con spring.threads.virtual.enabled (Java 21+) fetch e store usano un virtual thread per
+ * job e il parsing resta limitato ai core, anche senza pipeline (vedi runInline).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ExtractionPipeline {
+
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    @Value("${extraction.pipeline.enabled:false}")
+    private boolean enabled;
+
+    @Value("${extraction.pipeline.io-threads:8}")
+    private int ioThreads;
+
+    // 0 = numero di core
+    @Value("${extraction.pipeline.cpu-threads:0}")
+    private int cpuThreads;
+
+    @Value("${extraction.pipeline.max-in-flight:32}")
+    private int maxInFlight;
+
+    @Value("${extraction.pipeline.spool-dir:${java.io.tmpdir}/extraction-spool}")
+    private String spoolDir;
+
+    private boolean virtualThreads;
+    private Semaphore cpuPermits;
+    private Semaphore inFlight;
+    private Stage fetch;
+    private Stage parse;
+    private Stage store;
+
+    /**
+     * Un passo della pipeline applicato al job
+     */
+    @FunctionalInterface
+    public interface Step<J> {
+        void apply(J job) throws Exception;
+    }
+
+    @PostConstruct
+    public void start() throws Exception {
+        int cores = cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors();
+        virtualThreads = Threading.VIRTUAL.isActive(environment);
+        cpuPermits = new Semaphore(cores);
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(getSpoolDir());
+        inFlight = new Semaphore(maxInFlight);
+        fetch = new Stage("fetch", ioThreads);
+        parse = new Stage("parse", cores);
+        store = new Stage("store", ioThreads);
+        log.info("🏭 Extraction pipeline: {} I/O threads per stage, {} CPU threads, {} jobs in flight",
+                virtualThreads ? "virtual" : ioThreads, cores, maxInFlight);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Path getSpoolDir() {
+        return Path.of(spoolDir);
+    }
+
+    /**
+     * Accoda il job sui tre stadi: il chiamante (il listener AMQP) attende solo un posto tra
+     * i max-in-flight job in corso e torna subito a prelevare messaggi. Il future si completa
+     * a store concluso, o con l'eccezione del passo fallito
+     */
+    public <J> CompletableFuture<Void> submit(J job, Step<J> fetchStep, Step<J> parseStep,
+                                              Step<J> storeStep) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return CompletableFuture.runAsync(() -> fetch.time(job, fetchStep), fetch)
+                    .thenRunAsync(() -> parse.time(job, parseStep), parse)
+                    .thenRunAsync(() -> store.time(job, storeStep), store)
+                    .whenComplete((ok, error) -> inFlight.release());
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Attende il job e rilancia l'eccezione del passo fallito
+     */
+    public static void await(CompletableFuture<?> job) throws Exception {
+        try {
+            job.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    public static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+
+    /**
+     * Esegue i tre passi nel thread chiamante; con i virtual thread il parsing
+     * attende un permesso CPU (al massimo un parsing per core)
+     */
+    public <J> void runInline(J job, Step<J> fetchStep, Step<J> parseStep, Step<J> storeStep) throws Exception {
+        fetchStep.apply(job);
+        if (virtualThreads) {
+            cpuPermits.acquire();
+            try {
+                parseStep.apply(job);
+            } finally {
+                cpuPermits.release();
+            }
+        } else {
+            parseStep.apply(job);
+        }
+        storeStep.apply(job);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled) {
+            fetch.shutdown();
+            parse.shutdown();
+            store.shutdown();
+        }
+    }
+
+    /**
+     * Stadio: pool di thread con coda limitata (o un virtual thread per job) e metriche
+     */
+    private class Stage implements Executor {
+
+        private final Executor executor;
+        private final ThreadPoolExecutor pool;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Timer waitTimer;
+        private final Timer runTimer;
+
+        private Stage(String name, int threads) {
+            if (virtualThreads && !name.equals("parse")) {
+                this.pool = null;
+                this.executor = new VirtualThreadTaskExecutor("extraction-" + name + "-");
+            } else {
+                // la coda contiene tutti i job ammessi: il limite e' applicato da inFlight
+                this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(maxInFlight), r -> new Thread(r, "extraction-" + name));
+                this.executor = pool;
+            }
+            this.waitTimer = Timer.builder("extraction.pipeline.wait").tag("stage", name).register(meterRegistry);
+            this.runTimer = Timer.builder("extraction.pipeline.duration").tag("stage", name).register(meterRegistry);
+            Gauge.builder("extraction.pipeline.active", active, AtomicInteger::get)
+                    .tag("stage", name).register(meterRegistry);
+            Gauge.builder("extraction.pipeline.queued", queued, AtomicInteger::get)
+                    .tag("stage", name).register(meterRegistry);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            long queuedAt = System.nanoTime();
+            queued.incrementAndGet();
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                waitTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+        }
+
+        private void shutdown() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        private <J> void time(J job, Step<J> step) {
+            long start = System.nanoTime();
+            try {
+                step.apply(job);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                runTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
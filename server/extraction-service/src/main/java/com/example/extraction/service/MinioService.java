@@ -1,6 +1,8 @@
 package com.example.extraction.service;
 
+import com.example.messaging.idempotency.MarkerStore;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -8,11 +10,12 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class MinioService {
+public class MinioService implements MarkerStore {
     
     private final MinioClient minioClient;
     
@@ -36,12 +39,34 @@ public class MinioService {
         }
     }
     
+    /**
+     * Read a small object as string, null if it does not exist
+     */
+    @Override
+    public String readIfExists(String objectName) {
+        try (InputStream stream = minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build())) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw new RuntimeException("Failed to read object from MinIO", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read object from MinIO", e);
+        }
+    }
+    
     /**
      * Upload JSON result to MinIO
      */
+    @Override
     public void uploadJson(String objectName, String jsonContent) {
         try {
-            byte[] bytes = jsonContent.getBytes();
+            byte[] bytes = jsonContent.getBytes(StandardCharsets.UTF_8);
             minioClient.putObject(
                     PutObjectArgs.builder()
                             .bucket(bucketName)
@@ -56,4 +81,25 @@ public class MinioService {
             throw new RuntimeException("Failed to upload JSON to MinIO", e);
         }
     }
+    
+    /**
+     * Upload plain-text artifact to MinIO (UTF-8, optionally gzip-compressed)
+     */
+    public void uploadText(String objectName, byte[] content, boolean gzip) {
+        try {
+            minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .stream(new ByteArrayInputStream(content), content.length, -1)
+                            .contentType(gzip ? "application/gzip" : "text/plain; charset=utf-8")
+                            .build()
+            );
+            log.info("✅ Uploaded text to MinIO: {}/{} ({} bytes{})", bucketName, objectName,
+                    content.length, gzip ? ", gzip" : "");
+        } catch (Exception e) {
+            log.error("❌ Error uploading text to MinIO: {}", objectName, e);
+            throw new RuntimeException("Failed to upload text to MinIO", e);
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.example.extraction.service;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.function.Consumer;
+
+/**
+ * ContentHandler SAX che riceve il testo da Tika mentre il parsing e' in corso
+ * e consegna ogni chunk appena completo, con le stesse regole di
+ * ChunkingService.splitIntoChunks (taglio sull'ultimo spazio entro chunkSize).
+ * Il testo completo resta disponibile in getText() a fine parsing.
+ */
+public class StreamingChunkHandler extends DefaultHandler {
+
+    private final int chunkSize;
+    private final Consumer<String> chunkSink;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private int chunkCount;
+
+    public StreamingChunkHandler(int chunkSize, Consumer<String> chunkSink) {
+        this.chunkSize = chunkSize;
+        this.chunkSink = chunkSink;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+        pending.append(ch, start, length);
+        while (pending.length() > chunkSize) {
+            int end = chunkSize;
+            int lastSpace = pending.lastIndexOf(" ", chunkSize);
+            if (lastSpace > 0) {
+                end = lastSpace;
+            }
+            emit(pending.substring(0, end));
+            pending.delete(0, end);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void endDocument() {
+        finish();
+    }
+
+    /**
+     * Consegna l'ultimo chunk parziale (idempotente)
+     */
+    public void finish() {
+        if (pending.length() > 0) {
+            emit(pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    private void emit(String chunk) {
+        String trimmed = chunk.trim();
+        if (!trimmed.isEmpty()) {
+            chunkSink.accept(trimmed);
+            chunkCount++;
+        }
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+}
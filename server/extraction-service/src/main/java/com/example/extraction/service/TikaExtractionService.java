@@ -3,6 +3,7 @@ package com.example.extraction.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tika.Tika;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
 import org.apache.tika.parser.AutoDetectParser;
@@ -13,11 +14,14 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Service per estrarre testo da documenti usando Apache Tika
@@ -55,18 +59,67 @@ public class TikaExtractionService {
         return new ExtractionResultData(fullText, chunks, metadataMap);
     }
     
+    /**
+     * Estrai testo e metadati da un file locale (spool della pipeline): Tika legge dal file,
+     * senza caricarlo in memoria
+     */
+    public ExtractionResultData extractTextAndMetadata(Path file) throws Exception {
+        Metadata metadata;
+        try (TikaInputStream stream = TikaInputStream.get(file)) {
+            metadata = extractMetadata(stream);
+        }
+        
+        String fullText = tika.parseToString(file);
+        log.info("Testo estratto: {} caratteri", fullText.length());
+        
+        List<String> chunks = chunkingService.splitIntoChunks(fullText);
+        log.info("Creati {} chunk", chunks.size());
+        
+        return new ExtractionResultData(fullText, chunks, convertMetadataToMap(metadata));
+    }
+    
+    /**
+     * Estrai testo e metadati con un solo parsing in streaming: ogni chunk viene
+     * consegnato a chunkSink appena completo, mentre Tika sta ancora leggendo il file
+     * (il file non viene caricato in memoria).
+     */
+    public ExtractionResultData extractStreaming(InputStream inputStream, Consumer<String> chunkSink) throws Exception {
+        List<String> chunks = new ArrayList<>();
+        StreamingChunkHandler handler = chunkingService.streamingHandler(chunk -> {
+            chunks.add(chunk);
+            chunkSink.accept(chunk);
+        });
+        
+        Parser parser = new AutoDetectParser();
+        Metadata metadata = new Metadata();
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser); // anche i documenti incorporati
+        try (TikaInputStream stream = TikaInputStream.get(inputStream)) {
+            parser.parse(stream, new BodyContentHandler(handler), metadata, context);
+        }
+        handler.finish();
+        
+        String fullText = handler.getText();
+        log.info("Testo estratto in streaming: {} caratteri, {} chunk", fullText.length(), chunks.size());
+        return new ExtractionResultData(fullText, chunks, convertMetadataToMap(metadata));
+    }
+    
     /**
      * Estrae metadati dal file usando Tika
      * (CODICE IDENTICO DA google-like-search/DocumentService.extractMetadata())
      */
     private Metadata extractMetadata(byte[] fileBytes) {
+        return extractMetadata(new ByteArrayInputStream(fileBytes));
+    }
+    
+    private Metadata extractMetadata(InputStream input) {
         try {
             Parser parser = new AutoDetectParser();
             BodyContentHandler handler = new BodyContentHandler(-1); // -1 = no limit
             Metadata metadata = new Metadata();
             ParseContext context = new ParseContext();
             
-            parser.parse(new ByteArrayInputStream(fileBytes), handler, metadata, context);
+            parser.parse(input, handler, metadata, context);
             return metadata;
         } catch (Exception e) {
             log.warn("Errore nell'estrazione metadati: {}", e.getMessage());
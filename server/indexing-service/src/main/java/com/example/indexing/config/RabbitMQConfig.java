@@ -1,23 +1,52 @@
 package com.example.indexing.config;
 
+import com.example.messaging.amqp.ChunkShards;
+import com.example.messaging.amqp.MessageConverters;
+import com.example.messaging.amqp.QueueArgumentsMigrator;
+import com.example.messaging.amqp.RequestQueues;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RabbitMQConfig {
     
+    // Code di richiesta con gli stessi argomenti in tutti i servizi (rabbitmq.queue.*)
+    private final RequestQueues requestQueues;
+    
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
     
     @Value("${rabbitmq.queue.indexing-requests}")
     private String indexingRequestsQueue;
     
+    @Value("${rabbitmq.max-priority:10}")
+    private int maxPriority;
+    
+    @Value("${rabbitmq.queue.indexing-chunks}")
+    private String indexingChunksQueue;
+    
+    @Value("${rabbitmq.routing-key.indexing-chunks}")
+    private String indexingChunksKey;
+    
+    @Value("${indexing.chunks.shards:4}")
+    private int chunkShards;
+    
+    public RabbitMQConfig(Environment environment) {
+        this.requestQueues = RequestQueues.from(environment);
+    }
+    
     // Exchange
     @Bean
     public TopicExchange exchange() {
@@ -27,24 +56,66 @@ public class RabbitMQConfig {
     // Queue
     @Bean
     public Queue indexingRequestsQueue() {
-        return QueueBuilder.durable(indexingRequestsQueue)
-                .withArgument("x-message-ttl", 300000)
-                .build();
+        return requestQueues.queue(indexingRequestsQueue, true);
+    }
+    
+    // Chunk stream from extraction-service (extraction.streaming.enabled): one queue per
+    // shard, consumed by ChunkStreamConsumer with one container per shard
+    @Bean
+    public Declarables indexingChunksQueues() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < chunkShards; shard++) {
+            Queue queue = QueueBuilder.durable(ChunkShards.name(indexingChunksQueue, shard))
+                    .maxPriority(maxPriority)
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange()).with(ChunkShards.name(indexingChunksKey, shard)));
+        }
+        return new Declarables(declarables);
+    }
+    
+    /**
+     * Batch listener (indexing.batch.enabled): fino a batch-size richieste per consegna,
+     * o quelle arrivate entro receive-timeout-ms, con ack manuale per messaggio
+     */
+    @Bean
+    @ConditionalOnProperty(name = "indexing.batch.enabled", havingValue = "true")
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${indexing.batch.size:50}") int batchSize,
+            @Value("${indexing.batch.receive-timeout-ms:200}") long receiveTimeoutMs) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        factory.setPrefetchCount(batchSize);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+    
+    // indexing-requests predates x-max-priority: migrated with rabbitmq.queue.migrate=true
+    @Bean
+    public QueueArgumentsMigrator queueArgumentsMigrator(ConnectionFactory connectionFactory,
+                                                         @Value("${rabbitmq.queue.migrate:false}") boolean migrate) {
+        return new QueueArgumentsMigrator(connectionFactory, migrate);
     }
     
-    // Message Converter
+    // Message Converter: JSON or CBOR by content_type, messaging.encoding for outgoing messages
+    // (logical type ids of the chunk stream, see ChunkStreamConsumer)
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter();
-        converter.setCreateMessageIds(true);
-        return converter;
+    public MessageConverter messageConverter(@Value("${messaging.encoding:json}") String encoding) {
+        return MessageConverters.create(encoding, true);
     }
     
     // RabbitTemplate
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
-        template.setMessageConverter(jsonMessageConverter());
+        template.setMessageConverter(messageConverter);
         return template;
     }
 }
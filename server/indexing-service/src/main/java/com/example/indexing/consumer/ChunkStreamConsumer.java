@@ -0,0 +1,166 @@
+package com.example.indexing.consumer;
+
+import com.example.indexing.service.ElasticsearchIndexingService;
+import com.example.indexing.service.MinioService;
+import com.example.indexing.service.SearchService;
+import com.example.messaging.amqp.ChunkShards;
+import com.example.messaging.dto.ChunkBatchMessage;
+import com.example.messaging.dto.ChunkSealMessage;
+import com.example.messaging.dto.IndexingCompletedMessage;
+import com.example.messaging.dto.StageStartedMessage;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consumer dei chunk in streaming dall'extraction-service (extraction.streaming.enabled):
+ * ogni batch viene indicizzato subito (status PROCESSING, gia' ricercabile), il sigillo
+ * applica i metadati, porta i chunk a COMPLETED e pubblica indexing.completed.
+ * Un container per shard (ChunkShards), con un solo consumer: batch e sigillo di un
+ * documento arrivano in ordine, documenti su shard diversi procedono in parallelo.
+ * Un documento con un batch fallito viene segnalato FAILED una sola volta: i batch
+ * successivi sono scartati e il sigillo rimuove i chunk gia' indicizzati.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChunkStreamConsumer implements RabbitListenerConfigurer {
+
+    private final MinioService minioService;
+    private final ElasticsearchIndexingService indexingService;
+    private final SearchService searchService;
+    private final RabbitTemplate rabbitTemplate;
+    private final MessageConverter messageConverter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Documenti gia' segnalati FAILED, in attesa del sigillo
+    private final Set<String> failedDocuments = ConcurrentHashMap.newKeySet();
+
+    @Value("${rabbitmq.exchange.name}")
+    private String exchangeName;
+
+    @Value("${rabbitmq.queue.indexing-chunks}")
+    private String chunksQueue;
+
+    @Value("${indexing.chunks.shards:4}")
+    private int shards;
+
+    @Value("${rabbitmq.routing-key.indexing-completed}")
+    private String completedRoutingKey;
+
+    @Value("${rabbitmq.routing-key.indexing-started:indexing.started}")
+    private String startedRoutingKey;
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (int shard = 0; shard < shards; shard++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("indexing-chunks-" + shard);
+            endpoint.setQueueNames(ChunkShards.name(chunksQueue, shard));
+            endpoint.setConcurrency("1");
+            endpoint.setMessageListener(this::onMessage);
+            registrar.registerEndpoint(endpoint);
+        }
+    }
+
+    private void onMessage(Message message) {
+        // Tipo dall'header __TypeId__ (chunkBatch / chunkSeal, vedi MessageConverters.TYPE_IDS)
+        Object payload = messageConverter.fromMessage(message);
+        if (payload instanceof ChunkBatchMessage batch) {
+            handleBatch(batch);
+        } else if (payload instanceof ChunkSealMessage seal) {
+            handleSeal(seal);
+        } else {
+            throw new AmqpRejectAndDontRequeueException("Unexpected chunk stream message: " + payload);
+        }
+    }
+
+    public void handleBatch(ChunkBatchMessage message) {
+        String fileId = message.getFileId();
+        if (failedDocuments.contains(fileId)) {
+            log.debug("Skipping chunks {} of failed fileId: {}", message.getFirstChunkIndex(), fileId);
+            return;
+        }
+        try {
+            List<String> chunks = message.getSegmentPath() != null
+                    ? objectMapper.readValue(minioService.downloadFileAsString(message.getSegmentPath()),
+                            new TypeReference<List<String>>() {})
+                    : message.getChunks();
+            indexingService.indexChunkBatch(fileId, message.getFilename(), message.getFirstChunkIndex(), chunks);
+            log.info("📥 Indexed streamed chunks {}-{} for fileId: {}", message.getFirstChunkIndex(),
+                    message.getFirstChunkIndex() + chunks.size() - 1, fileId);
+        } catch (Exception e) {
+            log.error("❌ Streamed indexing failed for fileId: {}", fileId, e);
+            fail(fileId, e.getMessage());
+        }
+    }
+
+    public void handleSeal(ChunkSealMessage message) {
+        String fileId = message.getFileId();
+        try {
+            if (message.isAborted()) {
+                // Estrazione fallita: l'orchestrator riceve gia' extraction.completed FAILED
+                failedDocuments.remove(fileId);
+                long deleted = searchService.deleteByDocumentId(fileId);
+                log.warn("⚠️ Chunk stream aborted for fileId: {}, removed {} chunks", fileId, deleted);
+            } else if (failedDocuments.remove(fileId)) {
+                // Gia' segnalato FAILED da un batch: nessun chunk parziale resta nell'indice
+                long deleted = searchService.deleteByDocumentId(fileId);
+                log.warn("⚠️ Discarded failed chunk stream for fileId: {}, removed {} chunks", fileId, deleted);
+            } else {
+                // Il sigillo e' il lavoro della fase di indicizzazione lato orchestrator
+                announceStart(fileId);
+                long completed = indexingService.sealDocument(fileId, message.getTotalChunks(), message.getMetadata());
+                if (completed == message.getTotalChunks()) {
+                    publish(new IndexingCompletedMessage(fileId, "SUCCESS", message.getTotalChunks()));
+                    log.info("✅ Indexing completed for fileId: {} ({} streamed chunks)", fileId, completed);
+                } else {
+                    publish(new IndexingCompletedMessage(fileId, "FAILED", (int) completed,
+                            "Indexed " + completed + " of " + message.getTotalChunks() + " streamed chunks"));
+                    log.error("❌ Indexed {} of {} streamed chunks for fileId: {}", completed, message.getTotalChunks(), fileId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("❌ Sealing failed for fileId: {}", fileId, e);
+            publish(new IndexingCompletedMessage(fileId, "FAILED", 0, e.getMessage()));
+        }
+
+        try {
+            minioService.deleteFolder("files/" + fileId + "/chunks/");
+        } catch (Exception e) {
+            log.warn("⚠️ Could not delete chunk segments for fileId: {}", fileId);
+        }
+    }
+
+    private void fail(String fileId, String error) {
+        if (failedDocuments.add(fileId)) {
+            publish(new IndexingCompletedMessage(fileId, "FAILED", 0, error));
+        }
+    }
+
+    private void publish(IndexingCompletedMessage message) {
+        rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, message);
+    }
+
+    private void announceStart(String fileId) {
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, startedRoutingKey, new StageStartedMessage(fileId, "indexing", null));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not publish indexing start for fileId: {}", fileId, e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.indexing.consumer;
+
+import com.example.indexing.dto.ExtractionResult;
+import com.example.indexing.model.SearchDocument;
+import com.example.indexing.service.ElasticsearchIndexingService;
+import com.example.indexing.service.MinioService;
+import com.example.messaging.dto.IndexingCompletedMessage;
+import com.example.messaging.dto.IndexingRequestMessage;
+import com.example.messaging.dto.StageStartedMessage;
+import com.example.messaging.idempotency.ProcessedMessageStore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rabbitmq.client.Channel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Consumer delle richieste di indicizzazione in modalita' batch (indexing.batch.enabled):
+ * i risultati di estrazione del batch vengono scaricati da MinIO in parallelo (o presi
+ * inline dalla richiesta), i chunk di tutti i documenti indicizzati con una sola richiesta
+ * bulk e ogni messaggio confermato singolarmente. Se Elasticsearch non risponde il batch
+ * torna in coda una volta; alla seconda consegna i documenti vengono segnalati FAILED.
+ * Le richieste gia' elaborate (stesso requestId) vengono confermate senza reindicizzare;
+ * una richiesta illeggibile viene rifiutata verso il dead-letter exchange.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "indexing.batch.enabled", havingValue = "true")
+public class IndexingBatchConsumer {
+
+    private final MinioService minioService;
+    private final ElasticsearchIndexingService indexingService;
+    private final RabbitTemplate rabbitTemplate;
+    private final ProcessedMessageStore processedMessages;
+    private final MessageConverter messageConverter;
+    private final Environment environment;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${rabbitmq.exchange.name}")
+    private String exchangeName;
+
+    @Value("${rabbitmq.routing-key.indexing-completed}")
+    private String completedRoutingKey;
+
+    @Value("${rabbitmq.routing-key.indexing-started:indexing.started}")
+    private String startedRoutingKey;
+
+    @Value("${indexing.batch.download-threads:8}")
+    private int downloadThreads;
+
+    private Executor downloader;
+
+    @PostConstruct
+    public void start() {
+        // Con spring.threads.virtual.enabled (Java 21+) un virtual thread per download
+        if (Threading.VIRTUAL.isActive(environment)) {
+            downloader = new VirtualThreadTaskExecutor("indexing-download-");
+            return;
+        }
+        downloader = Executors.newFixedThreadPool(downloadThreads, r -> {
+            Thread thread = new Thread(r, "indexing-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.indexing-requests}", containerFactory = "batchListenerContainerFactory")
+    public void handleIndexingBatch(List<Message> messages, Channel channel) throws IOException {
+        log.info("📥 Received indexing batch of {} requests", messages.size());
+
+        // 0. Decodifica (JSON o CBOR, dal content_type) e richieste gia' elaborate:
+        //    per queste si ripubblica l'esito registrato
+        Map<Message, IndexingRequestMessage> requests = new IdentityHashMap<>();
+        List<Message> pending = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            IndexingRequestMessage request = decode(message);
+            if (request == null) {
+                // Illeggibile: nessun fileId da completare, va sul dead-letter exchange
+                channel.basicNack(deliveryTag(message), false, false);
+                continue;
+            }
+            requests.put(message, request);
+            IndexingCompletedMessage processed = processedMessages.find("indexing",
+                    request.getFileId(), ProcessedMessageStore.version(request.getChecksum(), request.getRequestId()),
+                    message.getMessageProperties().isRedelivered() || request.getAttempt() > 0,
+                    IndexingCompletedMessage.class);
+            if (processed != null) {
+                publish(processed);
+                channel.basicAck(deliveryTag(message), false);
+            } else {
+                pending.add(message);
+                announceStart(request);
+            }
+        }
+        messages = pending;
+
+        // 1. Risultati di estrazione: inline o scaricati da MinIO in parallelo
+        List<CompletableFuture<ExtractionResult>> results = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            IndexingRequestMessage request = requests.get(message);
+            results.add(CompletableFuture.supplyAsync(() -> load(request), downloader));
+        }
+
+        // 2. Chunk di tutti i documenti letti correttamente in un'unica richiesta bulk
+        Map<Message, List<SearchDocument>> documents = new IdentityHashMap<>();
+        List<SearchDocument> bulk = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            try {
+                List<SearchDocument> docs = indexingService.buildDocuments(results.get(i).join());
+                documents.put(message, docs);
+                bulk.addAll(docs);
+            } catch (Exception e) {
+                String fileId = requests.get(message).getFileId();
+                log.error("❌ Indexing failed for fileId: {}", fileId, e);
+                publish(new IndexingCompletedMessage(fileId, "FAILED", 0, e.getMessage()));
+                channel.basicAck(deliveryTag(message), false);
+            }
+        }
+
+        Set<String> failed;
+        try {
+            failed = indexingService.indexBulk(bulk);
+        } catch (Exception e) {
+            log.error("❌ Bulk indexing of {} chunks failed", bulk.size(), e);
+            for (Message message : documents.keySet()) {
+                if (message.getMessageProperties().isRedelivered()) {
+                    publish(new IndexingCompletedMessage(requests.get(message).getFileId(), "FAILED", 0, e.getMessage()));
+                    channel.basicAck(deliveryTag(message), false);
+                } else {
+                    channel.basicNack(deliveryTag(message), false, true);
+                }
+            }
+            return;
+        }
+
+        // 3. Esito e ack per messaggio
+        for (Map.Entry<Message, List<SearchDocument>> entry : documents.entrySet()) {
+            IndexingRequestMessage request = requests.get(entry.getKey());
+            String fileId = request.getFileId();
+            if (failed.contains(fileId)) {
+                publish(new IndexingCompletedMessage(fileId, "FAILED", 0, "Bulk indexing failed"));
+            } else {
+                IndexingCompletedMessage completed = new IndexingCompletedMessage(fileId, "SUCCESS", entry.getValue().size());
+                completed.setRequestId(request.getRequestId());
+                processedMessages.record("indexing", fileId,
+                        ProcessedMessageStore.version(request.getChecksum(), request.getRequestId()), completed);
+                publish(completed);
+            }
+            channel.basicAck(deliveryTag(entry.getKey()), false);
+        }
+        log.info("✅ Indexed batch: {} documents, {} chunks, {} failed",
+                documents.size() - failed.size(), bulk.size(), failed.size());
+    }
+
+    private ExtractionResult load(IndexingRequestMessage request) {
+        try {
+            if (request.getChunks() != null) {
+                return new ExtractionResult(request.getFileId(), null, request.getChunks(), request.getMetadata(), null);
+            }
+            String extractedJson = minioService.downloadFileAsString("files/" + request.getFileId() + "/extracted-text.json");
+            return objectMapper.readValue(extractedJson, ExtractionResult.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read extraction result", e);
+        }
+    }
+
+    /**
+     * Richiesta decodificata con il converter dei listener, null se illeggibile
+     */
+    private IndexingRequestMessage decode(Message message) {
+        try {
+            MessageProperties properties = message.getMessageProperties();
+            properties.setInferredArgumentType(IndexingRequestMessage.class);
+            return (IndexingRequestMessage) messageConverter.fromMessage(message);
+        } catch (Exception e) {
+            log.error("❌ Unreadable indexing request", e);
+            return null;
+        }
+    }
+
+    private long deliveryTag(Message message) {
+        return message.getMessageProperties().getDeliveryTag();
+    }
+
+    private void publish(IndexingCompletedMessage message) {
+        rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, message);
+    }
+
+    // Presa in carico: da qui l'orchestrator misura la deadline dello StuckJobReaper
+    private void announceStart(IndexingRequestMessage request) {
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, startedRoutingKey,
+                    new StageStartedMessage(request.getFileId(), "indexing", request.getRequestId()));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not publish indexing start for fileId: {}", request.getFileId(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (downloader instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+}
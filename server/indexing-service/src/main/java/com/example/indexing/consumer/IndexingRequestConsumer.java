@@ -1,17 +1,21 @@
 package com.example.indexing.consumer;
 
 import com.example.indexing.dto.ExtractionResult;
-import com.example.indexing.dto.IndexingCompletedMessage;
-import com.example.indexing.dto.IndexingRequestMessage;
 import com.example.indexing.service.ElasticsearchIndexingService;
 import com.example.indexing.service.MinioService;
+import com.example.messaging.dto.IndexingCompletedMessage;
+import com.example.messaging.dto.IndexingRequestMessage;
+import com.example.messaging.dto.StageStartedMessage;
+import com.example.messaging.idempotency.ProcessedMessageStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
@@ -27,6 +31,7 @@ public class IndexingRequestConsumer {
     private final MinioService minioService;
     private final ElasticsearchIndexingService indexingService;
     private final RabbitTemplate rabbitTemplate;
+    private final ProcessedMessageStore processedMessages;
     
     private final ObjectMapper objectMapper = new ObjectMapper()
             .registerModule(new JavaTimeModule());
@@ -37,23 +42,48 @@ public class IndexingRequestConsumer {
     @Value("${rabbitmq.routing-key.indexing-completed}")
     private String completedRoutingKey;
     
-    @RabbitListener(queues = "${rabbitmq.queue.indexing-requests}")
-    public void handleIndexingRequest(IndexingRequestMessage message) {
+    @Value("${rabbitmq.routing-key.indexing-started:indexing.started}")
+    private String startedRoutingKey;
+    
+    // Con indexing.batch.enabled la coda e' servita da IndexingBatchConsumer.
+    // Una richiesta gia' elaborata (stesso documento e checksum) ripubblica l'esito registrato
+    @RabbitListener(queues = "${rabbitmq.queue.indexing-requests}",
+            autoStartup = "#{!${indexing.batch.enabled:false}}")
+    public void handleIndexingRequest(IndexingRequestMessage message,
+                                      @Header(AmqpHeaders.REDELIVERED) boolean redelivered) {
         String fileId = message.getFileId();
         log.info("📥 Received indexing request for fileId: {}", fileId);
         
+        IndexingCompletedMessage processed = processedMessages.find("indexing", fileId,
+                ProcessedMessageStore.version(message.getChecksum(), message.getRequestId()),
+                redelivered || message.getAttempt() > 0, IndexingCompletedMessage.class);
+        if (processed != null) {
+            log.info("🔁 Indexing request {} for fileId: {} already processed, republishing result",
+                    message.getRequestId(), fileId);
+            rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, processed);
+            return;
+        }
+        
+        announceStart(message);
         try {
-            // 1. Download extracted text JSON from MinIO
-            String extractedPath = "files/" + fileId + "/extracted-text.json";
-            String extractedJson = minioService.downloadFileAsString(extractedPath);
-            log.info("Downloaded extracted text from MinIO");
-            
-            // 2. Parse JSON
-            ExtractionResult extractionResult = objectMapper.readValue(
-                    extractedJson,
-                    ExtractionResult.class
-            );
-            log.info("Parsed extraction result: {} chunks", extractionResult.getChunks().size());
+            ExtractionResult extractionResult;
+            if (message.getChunks() != null) {
+                // Documento piccolo: chunk e metadati inline nella richiesta
+                extractionResult = new ExtractionResult(fileId, null, message.getChunks(), message.getMetadata(), null);
+                log.info("Using inline extraction result: {} chunks", extractionResult.getChunks().size());
+            } else {
+                // 1. Download extracted text JSON from MinIO
+                String extractedPath = "files/" + fileId + "/extracted-text.json";
+                String extractedJson = minioService.downloadFileAsString(extractedPath);
+                log.info("Downloaded extracted text from MinIO");
+                
+                // 2. Parse JSON
+                extractionResult = objectMapper.readValue(
+                        extractedJson,
+                        ExtractionResult.class
+                );
+                log.info("Parsed extraction result: {} chunks", extractionResult.getChunks().size());
+            }
             
             // 3. Index to Elasticsearch
             List<String> indexedIds = indexingService.indexDocument(extractionResult);
@@ -65,6 +95,9 @@ public class IndexingRequestConsumer {
                     "SUCCESS",
                     indexedIds.size()
             );
+            completedMsg.setRequestId(message.getRequestId());
+            processedMessages.record("indexing", fileId,
+                    ProcessedMessageStore.version(message.getChecksum(), message.getRequestId()), completedMsg);
             rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, completedMsg);
             
             log.info("✅ Indexing completed for fileId: {} ({} chunks)", 
@@ -83,4 +116,14 @@ public class IndexingRequestConsumer {
             rabbitTemplate.convertAndSend(exchangeName, completedRoutingKey, failureMsg);
         }
     }
+    
+    // Presa in carico: da qui l'orchestrator misura la deadline dello StuckJobReaper
+    private void announceStart(IndexingRequestMessage message) {
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, startedRoutingKey,
+                    new StageStartedMessage(message.getFileId(), "indexing", message.getRequestId()));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not publish indexing start for fileId: {}", message.getFileId(), e);
+        }
+    }
 }
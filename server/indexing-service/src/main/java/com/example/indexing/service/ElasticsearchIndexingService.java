@@ -1,18 +1,25 @@
 package com.example.indexing.service;
 
+import co.elastic.clients.json.JsonData;
 import com.example.indexing.dto.ExtractionResult;
 import com.example.indexing.model.SearchDocument;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 /**
  * Service per indicizzare documenti su Elasticsearch
@@ -25,41 +32,28 @@ public class ElasticsearchIndexingService {
     
     private final ElasticsearchOperations elasticsearchOperations;
     
+    // Update parziali per richiesta bulk al sigillo di un documento in streaming
+    private static final int SEAL_BATCH_SIZE = 1000;
+    
     /**
-     * Indicizza tutti i chunk di un documento su Elasticsearch
+     * Indicizza tutti i chunk di un documento su Elasticsearch (una sola richiesta bulk)
      */
     public List<String> indexDocument(ExtractionResult extractionResult) {
         List<String> indexedIds = new ArrayList<>();
         
         try {
             String fileId = extractionResult.getFileId();
-            List<String> chunks = extractionResult.getChunks();
-            Map<String, String> metadata = extractionResult.getMetadata();
-            
-            log.info("Indexing {} chunks for fileId: {}", chunks.size(), fileId);
-            
-            // Indicizza ogni chunk come documento separato
-            for (int i = 0; i < chunks.size(); i++) {
-                SearchDocument doc = new SearchDocument();
-                doc.setId(UUID.randomUUID().toString());
-                doc.setDocumentId(fileId);
-                doc.setContent(chunks.get(i));
-                doc.setChunkIndex(i);
-                doc.setTotalChunks(chunks.size());
-                doc.setUploadedAt(LocalDateTime.now());
-                doc.setStatus("COMPLETED");
-                
-                // Applica metadati da Tika
-                applyMetadataToDocument(doc, metadata);
-                
-                // Salva su Elasticsearch
-                elasticsearchOperations.save(doc);
-                indexedIds.add(doc.getId());
-                
-                log.debug("Indexed chunk {}/{} for fileId: {}", i + 1, chunks.size(), fileId);
+            List<SearchDocument> docs = buildDocuments(extractionResult);
+            
+            log.info("Indexing {} chunks for fileId: {}", docs.size(), fileId);
+            
+            // Salva su Elasticsearch
+            if (!docs.isEmpty()) {
+                elasticsearchOperations.save(docs);
             }
+            docs.forEach(doc -> indexedIds.add(doc.getId()));
             
-            log.info("✅ Successfully indexed {} chunks for fileId: {}", chunks.size(), fileId);
+            log.info("✅ Successfully indexed {} chunks for fileId: {}", docs.size(), fileId);
             
             return indexedIds;
             
@@ -69,6 +63,126 @@ public class ElasticsearchIndexingService {
         }
     }
     
+    /**
+     * Un SearchDocument per chunk (un documento separato per ogni chunk, con i metadati Tika)
+     */
+    public List<SearchDocument> buildDocuments(ExtractionResult extractionResult) {
+        String fileId = extractionResult.getFileId();
+        List<String> chunks = extractionResult.getChunks();
+        List<SearchDocument> docs = new ArrayList<>(chunks.size());
+        LocalDateTime now = LocalDateTime.now();
+        
+        for (int i = 0; i < chunks.size(); i++) {
+            SearchDocument doc = new SearchDocument();
+            doc.setId(chunkId(fileId, i));
+            doc.setDocumentId(fileId);
+            doc.setContent(chunks.get(i));
+            doc.setChunkIndex(i);
+            doc.setTotalChunks(chunks.size());
+            doc.setUploadedAt(now);
+            doc.setStatus("COMPLETED");
+            
+            // Applica metadati da Tika
+            applyMetadataToDocument(doc, extractionResult.getMetadata());
+            docs.add(doc);
+        }
+        return docs;
+    }
+    
+    /**
+     * Indicizza con una sola richiesta bulk i chunk di piu' documenti (batch listener)
+     *
+     * @return id dei documenti di cui e' fallita l'indicizzazione (vuoto se tutto ok)
+     */
+    public Set<String> indexBulk(List<SearchDocument> docs) {
+        if (docs.isEmpty()) {
+            return Set.of();
+        }
+        try {
+            elasticsearchOperations.save(docs);
+            return Set.of();
+        } catch (BulkFailureException e) {
+            Set<String> failed = new HashSet<>();
+            e.getFailedDocuments().keySet().forEach(id -> failed.add(id.substring(0, id.lastIndexOf('_'))));
+            log.warn("⚠️ Bulk indexing failed for {} chunks of {} documents", e.getFailedDocuments().size(), failed.size());
+            return failed;
+        }
+    }
+    
+    /**
+     * Indicizza (bulk) un batch di chunk in streaming, ancora senza metadati Tika
+     * e senza totalChunks: restano PROCESSING fino al sigillo del documento.
+     * Gli id sono deterministici, una riconsegna del batch sovrascrive gli stessi chunk.
+     */
+    public int indexChunkBatch(String fileId, String filename, int firstChunkIndex, List<String> chunks) {
+        List<SearchDocument> docs = new ArrayList<>(chunks.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < chunks.size(); i++) {
+            SearchDocument doc = new SearchDocument();
+            doc.setId(chunkId(fileId, firstChunkIndex + i));
+            doc.setDocumentId(fileId);
+            doc.setFilename(filename);
+            doc.setContent(chunks.get(i));
+            doc.setChunkIndex(firstChunkIndex + i);
+            doc.setUploadedAt(now);
+            doc.setStatus("PROCESSING");
+            docs.add(doc);
+        }
+        elasticsearchOperations.save(docs);
+        log.debug("Indexed chunks {}-{} for fileId: {}", firstChunkIndex, firstChunkIndex + chunks.size() - 1, fileId);
+        return docs.size();
+    }
+    
+    /**
+     * Chiude un documento indicizzato in streaming: applica metadati e totalChunks ai chunk
+     * 0..totalChunks-1 con update parziali per id (bulk, nessun refresh necessario) e li porta
+     * a COMPLETED. I chunk oltre totalChunks, rimasti da un'estrazione precedente piu' lunga
+     * dello stesso documento, vengono cancellati.
+     *
+     * @return numero di chunk del documento portati a COMPLETED
+     */
+    public long sealDocument(String fileId, int totalChunks, Map<String, String> metadata) {
+        IndexCoordinates index = elasticsearchOperations.getIndexCoordinatesFor(SearchDocument.class);
+        
+        SearchDocument template = new SearchDocument();
+        applyMetadataToDocument(template, metadata);
+        template.setTotalChunks(totalChunks);
+        template.setStatus("COMPLETED");
+        Document fields = elasticsearchOperations.getElasticsearchConverter().mapObject(template);
+        fields.remove("id");
+        fields.remove("_class");
+        
+        long completed = 0;
+        for (int from = 0; from < totalChunks; from += SEAL_BATCH_SIZE) {
+            List<UpdateQuery> updates = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SEAL_BATCH_SIZE, totalChunks); i++) {
+                updates.add(UpdateQuery.builder(chunkId(fileId, i)).withDocument(fields).build());
+            }
+            try {
+                elasticsearchOperations.bulkUpdate(updates, index);
+                completed += updates.size();
+            } catch (BulkFailureException e) {
+                // Chunk mancanti (document_missing) o rifiutati
+                completed += updates.size() - e.getFailedDocuments().size();
+            }
+        }
+        
+        NativeQuery stale = NativeQuery.builder()
+                .withQuery(q -> q.bool(b -> b
+                        .filter(f -> f.term(t -> t.field("documentId").value(fileId)))
+                        .filter(f -> f.range(r -> r.field("chunkIndex").gte(JsonData.of(totalChunks))))))
+                .build();
+        long deleted = elasticsearchOperations.delete(stale, SearchDocument.class).getDeleted();
+        if (deleted > 0) {
+            log.info("Removed {} stale chunks of a previous extraction for fileId: {}", deleted, fileId);
+        }
+        return completed;
+    }
+    
+    private String chunkId(String fileId, int chunkIndex) {
+        return fileId + "_" + chunkIndex;
+    }
+    
     /**
      * Applica metadati dal Map al SearchDocument
      * (LOGICA DA google-like-search/DocumentService.applyMetadata())
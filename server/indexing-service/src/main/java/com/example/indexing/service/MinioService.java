@@ -1,18 +1,22 @@
 package com.example.indexing.service;
 
+import com.example.messaging.idempotency.MarkerStore;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Item;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class MinioService {
+public class MinioService implements MarkerStore {
     
     private final MinioClient minioClient;
     
@@ -42,4 +46,74 @@ public class MinioService {
             throw new RuntimeException("Failed to download file from MinIO", e);
         }
     }
+    
+    /**
+     * Read a small object as string, null if it does not exist
+     */
+    @Override
+    public String readIfExists(String objectName) {
+        try (InputStream stream = minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build())) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw new RuntimeException("Failed to read object from MinIO", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read object from MinIO", e);
+        }
+    }
+    
+    /**
+     * Upload JSON content to MinIO
+     */
+    @Override
+    public void uploadJson(String objectName, String jsonContent) {
+        try {
+            byte[] bytes = jsonContent.getBytes(StandardCharsets.UTF_8);
+            minioClient.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .stream(new ByteArrayInputStream(bytes), bytes.length, -1)
+                            .contentType("application/json")
+                            .build()
+            );
+            log.info("✅ Uploaded JSON to MinIO: {}/{}", bucketName, objectName);
+        } catch (Exception e) {
+            log.error("❌ Error uploading JSON to MinIO: {}", objectName, e);
+            throw new RuntimeException("Failed to upload JSON to MinIO", e);
+        }
+    }
+    
+    /**
+     * Delete every object under a prefix (e.g. files/{id}/chunks/)
+     */
+    public void deleteFolder(String prefix) {
+        try {
+            Iterable<Result<Item>> objects = minioClient.listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(bucketName)
+                            .prefix(prefix)
+                            .recursive(true)
+                            .build()
+            );
+            for (Result<Item> object : objects) {
+                minioClient.removeObject(
+                        RemoveObjectArgs.builder()
+                                .bucket(bucketName)
+                                .object(object.get().objectName())
+                                .build()
+                );
+            }
+            log.info("🗑️ Deleted objects under {}/{}", bucketName, prefix);
+        } catch (Exception e) {
+            log.error("❌ Error deleting objects from MinIO: {}", prefix, e);
+            throw new RuntimeException("Failed to delete objects from MinIO", e);
+        }
+    }
 }
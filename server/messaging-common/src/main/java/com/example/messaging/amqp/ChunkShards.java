@@ -0,0 +1,25 @@
+package com.example.messaging.amqp;
+
+/**
+ * Partizionamento dello stream dei chunk (indexing-chunks) per documento: tutti i messaggi
+ * di un fileId finiscono sempre sullo stesso shard, quindi restano in ordine con un solo
+ * consumer per shard, mentre documenti diversi vengono indicizzati in parallelo.
+ * Lo shard 0 usa la coda e la routing key storiche. Il numero di shard
+ * (indexing.chunks.shards) deve coincidere in extraction-service e indexing-service.
+ */
+public final class ChunkShards {
+
+    private ChunkShards() {
+    }
+
+    public static int shardOf(String fileId, int shards) {
+        return shards > 1 ? Math.floorMod(fileId.hashCode(), shards) : 0;
+    }
+
+    /**
+     * Nome della coda o routing key dello shard: base per lo shard 0, base.{shard} per gli altri
+     */
+    public static String name(String base, int shard) {
+        return shard == 0 ? base : base + "." + shard;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.messaging.amqp;
+
+import java.util.List;
+
+/**
+ * Corsie di estrazione: l'orchestrator pubblica ogni richiesta su {extraction-request}.{lane}
+ * e dichiara le code {extraction-requests}.{lane}, l'extraction-service le consuma con
+ * concorrenza e prefetch propri. L'elenco e' lo stesso per entrambi i servizi.
+ */
+public final class ExtractionLanes {
+
+    public static final String TEXT = "text";
+    public static final String OFFICE = "office";
+    public static final String PDF = "pdf";
+    public static final String LARGE = "large";
+
+    public static final List<String> LANES = List.of(TEXT, OFFICE, PDF, LARGE);
+
+    private ExtractionLanes() {
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.messaging.amqp;
+
+import com.example.messaging.dto.ChunkBatchMessage;
+import com.example.messaging.dto.ChunkSealMessage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.util.Map;
+
+/**
+ * Converter dei messaggi tra i servizi, scelto dal content_type del messaggio:
+ * <ul>
+ *   <li>application/json: formato storico, sempre accettato in ingresso</li>
+ *   <li>application/cbor: binario, vedi CborMessageConverter</li>
+ * </ul>
+ * In uscita si usa messaging.encoding (json o cbor). Poiche' ogni servizio legge entrambi
+ * i formati, si passa a cbor un servizio alla volta, dopo aver aggiornato i consumer.
+ */
+public final class MessageConverters {
+
+    public static final String JSON = MessageProperties.CONTENT_TYPE_JSON;
+    public static final String CBOR = CborMessageConverter.CONTENT_TYPE;
+
+    /**
+     * Id logici (__TypeId__) dei messaggi smistati per tipo, come lo stream dei chunk
+     */
+    public static final Map<String, Class<?>> TYPE_IDS = Map.of(
+            "chunkBatch", ChunkBatchMessage.class,
+            "chunkSeal", ChunkSealMessage.class);
+
+    private static final ObjectMapper JSON_MAPPER = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private static final ObjectMapper CBOR_MAPPER = CBORMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private MessageConverters() {
+    }
+
+    /**
+     * @param encoding formato dei messaggi pubblicati: json o cbor
+     */
+    public static MessageConverter create(String encoding) {
+        return create(encoding, false);
+    }
+
+    /**
+     * @param createMessageIds assegna un message_id a ogni messaggio pubblicato
+     */
+    public static MessageConverter create(String encoding, boolean createMessageIds) {
+        DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+        typeMapper.setTrustedPackages(ChunkBatchMessage.class.getPackageName());
+        typeMapper.setIdClassMapping(TYPE_IDS);
+
+        Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter();
+        json.setJavaTypeMapper(typeMapper);
+        CborMessageConverter cbor = new CborMessageConverter(CBOR_MAPPER, typeMapper);
+        json.setCreateMessageIds(createMessageIds);
+        cbor.setCreateMessageIds(createMessageIds);
+
+        ContentTypeDelegatingMessageConverter converter =
+                new ContentTypeDelegatingMessageConverter("cbor".equalsIgnoreCase(encoding) ? cbor : json);
+        converter.addDelegate(JSON, json);
+        converter.addDelegate(CBOR, cbor);
+        return converter;
+    }
+
+    /**
+     * Mapper per leggere il corpo di un messaggio grezzo (es. dalla dead-letter queue)
+     */
+    public static ObjectMapper mapperFor(String contentType) {
+        return contentType != null && contentType.startsWith(CBOR) ? CBOR_MAPPER : JSON_MAPPER;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.messaging.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Allinea le code gia' esistenti sul broker agli argomenti dichiarati (x-max-priority,
+ * x-queue-type, x-message-ttl, x-dead-letter-exchange...). RabbitMQ non modifica gli
+ * argomenti di una coda esistente: la ridichiarazione fallisce con 406 PRECONDITION_FAILED
+ * e il RabbitAdmin non riesce a dichiarare la topologia.
+ * <p>
+ * Gira prima dell'avvio dei listener, su una connessione propria (fuori dal RabbitAdmin):
+ * <ul>
+ *   <li>rabbitmq.queue.migrate=false (default): segnala le code incompatibili e non le tocca</li>
+ *   <li>rabbitmq.queue.migrate=true: sposta i messaggi su {coda}.migration, cancella la coda,
+ *       la ridichiara con i nuovi argomenti e i suoi binding, e riporta indietro i messaggi
+ *       (con priorita' e header originali)</li>
+ * </ul>
+ * La migrazione va eseguita da una sola istanza alla volta, con i producer fermi:
+ * tra la cancellazione e il nuovo binding i messaggi pubblicati non hanno destinazione.
+ */
+@Slf4j
+public class QueueArgumentsMigrator implements SmartInitializingSingleton, ApplicationContextAware {
+
+    private static final int PRECONDITION_FAILED = 406;
+    private static final int NOT_FOUND = 404;
+    private static final int CONFIRM_BATCH = 500;
+    private static final long CONFIRM_TIMEOUT_MS = 30_000;
+    private static final String MIGRATION_SUFFIX = ".migration";
+
+    private final ConnectionFactory connectionFactory;
+    private final boolean migrate;
+    private ApplicationContext applicationContext;
+
+    public QueueArgumentsMigrator(ConnectionFactory connectionFactory, boolean migrate) {
+        this.connectionFactory = connectionFactory;
+        this.migrate = migrate;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!(connectionFactory instanceof AbstractConnectionFactory factory)) {
+            return;
+        }
+        List<Queue> queues = new ArrayList<>(applicationContext.getBeansOfType(Queue.class).values());
+        List<Binding> bindings = new ArrayList<>(applicationContext.getBeansOfType(Binding.class).values());
+        for (Declarables declarables : applicationContext.getBeansOfType(Declarables.class).values()) {
+            queues.addAll(declarables.getDeclarablesByType(Queue.class));
+            bindings.addAll(declarables.getDeclarablesByType(Binding.class));
+        }
+
+        try (Connection connection = factory.getRabbitConnectionFactory().newConnection("queue-migration")) {
+            for (Queue queue : queues) {
+                if (queue.isExclusive() || queue.isAutoDelete()) {
+                    continue;
+                }
+                if (exists(connection, queue.getName()) && !matches(connection, queue)) {
+                    if (!migrate) {
+                        log.error("❌ Queue {} exists with different arguments than {}: start one instance with "
+                                + "rabbitmq.queue.migrate=true to migrate it", queue.getName(), queue.getArguments());
+                    } else {
+                        migrate(connection, queue, bindings);
+                    }
+                } else if (migrate && exists(connection, queue.getName() + MIGRATION_SUFFIX)) {
+                    // Migrazione interrotta: i messaggi sono ancora nella coda temporanea
+                    restore(connection, queue, bindings);
+                }
+            }
+        } catch (IOException | TimeoutException e) {
+            // Broker non raggiungibile: ci pensano i listener a riprovare
+            log.warn("⚠️ Could not check queue arguments: {}", e.getMessage());
+        }
+    }
+
+    private boolean exists(Connection connection, String name) throws IOException {
+        Channel channel = connection.createChannel();
+        try {
+            channel.queueDeclarePassive(name);
+            return true;
+        } catch (IOException e) {
+            if (replyCode(e) == NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Ridichiarazione con gli argomenti attuali: identica a quella esistente e' un no-op
+     */
+    private boolean matches(Connection connection, Queue queue) throws IOException {
+        Channel channel = connection.createChannel();
+        try {
+            declare(channel, queue);
+            return true;
+        } catch (IOException e) {
+            if (replyCode(e) == PRECONDITION_FAILED) {
+                return false;
+            }
+            throw e;
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private void migrate(Connection connection, Queue queue, List<Binding> bindings) throws IOException {
+        String name = queue.getName();
+        String temporary = name + MIGRATION_SUFFIX;
+        log.warn("🔧 Migrating queue {} to arguments {}", name, queue.getArguments());
+
+        Channel channel = confirmingChannel(connection);
+        channel.queueDeclare(temporary, true, false, false, null);
+        long moved = move(channel, name, temporary);
+
+        // Cancellata solo se vuota: cio' che arriva nel frattempo viene spostato a sua volta
+        while (true) {
+            try {
+                channel.queueDelete(name, false, true);
+                break;
+            } catch (IOException e) {
+                if (replyCode(e) != PRECONDITION_FAILED) {
+                    throw e;
+                }
+                channel = confirmingChannel(connection);
+                moved += move(channel, name, temporary);
+            }
+        }
+
+        closeQuietly(channel);
+        restore(connection, queue, bindings);
+        log.warn("✅ Queue {} migrated, {} messages moved", name, moved);
+    }
+
+    /**
+     * Dichiara la coda con i nuovi argomenti e i suoi binding, poi riporta i messaggi
+     * dalla coda temporanea e la cancella
+     */
+    private void restore(Connection connection, Queue queue, List<Binding> bindings) throws IOException {
+        String name = queue.getName();
+        Channel channel = confirmingChannel(connection);
+        declare(channel, queue);
+        for (Binding binding : bindings) {
+            if (binding.isDestinationQueue() && name.equals(binding.getDestination())
+                    && !binding.getExchange().isEmpty()) {
+                channel.queueBind(name, binding.getExchange(), binding.getRoutingKey(), binding.getArguments());
+            }
+        }
+        long restored = move(channel, name + MIGRATION_SUFFIX, name);
+        channel.queueDelete(name + MIGRATION_SUFFIX, false, true);
+        closeQuietly(channel);
+        log.info("📦 Restored {} messages into queue {}", restored, name);
+    }
+
+    /**
+     * Sposta i messaggi da una coda all'altra: ogni blocco viene confermato dal broker
+     * prima dell'ack sulla coda di origine, quindi un'interruzione puo' solo duplicare
+     */
+    private long move(Channel channel, String from, String to) throws IOException {
+        long moved = 0;
+        long lastTag = -1;
+        int unconfirmed = 0;
+        GetResponse response;
+        while ((response = channel.basicGet(from, false)) != null) {
+            channel.basicPublish("", to, response.getProps(), response.getBody());
+            lastTag = response.getEnvelope().getDeliveryTag();
+            moved++;
+            if (++unconfirmed == CONFIRM_BATCH) {
+                confirm(channel, lastTag);
+                unconfirmed = 0;
+            }
+        }
+        if (unconfirmed > 0) {
+            confirm(channel, lastTag);
+        }
+        return moved;
+    }
+
+    private void confirm(Channel channel, long lastTag) throws IOException {
+        try {
+            channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for publisher confirms", e);
+        } catch (TimeoutException e) {
+            throw new IOException("Publisher confirms timed out", e);
+        }
+        channel.basicAck(lastTag, true);
+    }
+
+    private Channel confirmingChannel(Connection connection) throws IOException {
+        Channel channel = connection.createChannel();
+        channel.confirmSelect();
+        return channel;
+    }
+
+    private void declare(Channel channel, Queue queue) throws IOException {
+        channel.queueDeclare(queue.getName(), queue.isDurable(), queue.isExclusive(), queue.isAutoDelete(),
+                queue.getArguments());
+    }
+
+    private int replyCode(IOException e) {
+        if (e.getCause() instanceof ShutdownSignalException signal
+                && signal.getReason() instanceof AMQP.Channel.Close close) {
+            return close.getReplyCode();
+        }
+        return -1;
+    }
+
+    private void closeQuietly(Channel channel) {
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception e) {
+            // canale gia' chiuso dal broker
+        }
+    }
+}
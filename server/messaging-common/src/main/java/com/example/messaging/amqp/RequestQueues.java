@@ -0,0 +1,80 @@
+package com.example.messaging.amqp;
+
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.core.env.Environment;
+
+/**
+ * Dichiarazione delle code di richiesta (extraction-requests e corsie, indexing-requests)
+ * secondo rabbitmq.queue.*, condivisa da tutti i servizi: RabbitMQ rifiuta con 406
+ * PRECONDITION_FAILED una coda ridichiarata con argomenti diversi, quindi orchestrator,
+ * extraction-service e indexing-service devono produrre gli stessi argomenti (una coda
+ * esistente con argomenti vecchi si allinea con QueueArgumentsMigrator).
+ * <ul>
+ *   <li>rabbitmq.queue.type: classic, lazy (messaggi su disco) o quorum (replicata,
+ *       senza x-max-priority, con delivery-limit opzionale)</li>
+ *   <li>rabbitmq.queue.message-ttl: 0 (default) nessuna scadenza, un backlog grande resta
+ *       in coda; altrimenti i messaggi scaduti vanno sul dead-letter exchange</li>
+ *   <li>rabbitmq.queue.dead-lettering: messaggi scaduti o rifiutati sul dead-letter
+ *       exchange con la routing key originale</li>
+ * </ul>
+ */
+public class RequestQueues {
+
+    private final String type;
+    private final int maxPriority;
+    private final int messageTtl;
+    private final boolean deadLettering;
+    private final String deadLetterExchange;
+    private final int deliveryLimit;
+
+    public RequestQueues(String type, int maxPriority, int messageTtl, boolean deadLettering,
+                         String deadLetterExchange, int deliveryLimit) {
+        this.type = type;
+        this.maxPriority = maxPriority;
+        this.messageTtl = messageTtl;
+        this.deadLettering = deadLettering;
+        this.deadLetterExchange = deadLetterExchange;
+        this.deliveryLimit = deliveryLimit;
+    }
+
+    /**
+     * Impostazioni lette da rabbitmq.*, con gli stessi default in tutti i servizi
+     */
+    public static RequestQueues from(Environment environment) {
+        return new RequestQueues(
+                environment.getProperty("rabbitmq.queue.type", "classic"),
+                environment.getProperty("rabbitmq.max-priority", Integer.class, 10),
+                environment.getProperty("rabbitmq.queue.message-ttl", Integer.class, 0),
+                environment.getProperty("rabbitmq.queue.dead-lettering", Boolean.class, true),
+                environment.getRequiredProperty("rabbitmq.exchange.dead-letter"),
+                environment.getProperty("rabbitmq.queue.delivery-limit", Integer.class, 0));
+    }
+
+    /**
+     * Coda di richieste; priority: x-max-priority per le code classic e lazy
+     */
+    public Queue queue(String name, boolean priority) {
+        QueueBuilder builder = QueueBuilder.durable(name);
+        if ("quorum".equals(type)) {
+            builder.quorum();
+            if (deliveryLimit > 0) {
+                builder.deliveryLimit(deliveryLimit);
+            }
+        } else {
+            if ("lazy".equals(type)) {
+                builder.withArgument("x-queue-mode", "lazy");
+            }
+            if (priority) {
+                builder.maxPriority(maxPriority);
+            }
+        }
+        if (messageTtl > 0) {
+            builder.ttl(messageTtl);
+        }
+        if (deadLettering) {
+            builder.deadLetterExchange(deadLetterExchange);
+        }
+        return builder.build();
+    }
+}
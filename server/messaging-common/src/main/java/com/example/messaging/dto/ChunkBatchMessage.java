@@ -0,0 +1,25 @@
+package com.example.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Batch di chunk consecutivi pubblicato durante il parsing (extraction.streaming.enabled).
+ * I chunk viaggiano nel messaggio oppure, per batch grandi, in un segmento JSON su MinIO.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkBatchMessage implements Serializable {
+    private String fileId;
+    private String filename;
+    private Integer firstChunkIndex;
+    private List<String> chunks; // inline payload (null if segmentPath is set)
+    private String segmentPath; // files/{fileId}/chunks/{firstChunkIndex}.json
+    private LocalDateTime timestamp;
+}
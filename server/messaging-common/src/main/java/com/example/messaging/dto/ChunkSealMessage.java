@@ -0,0 +1,25 @@
+package com.example.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Chiude lo streaming dei chunk di un documento: totalChunks e metadati Tika
+ * (disponibili solo a parsing concluso). aborted = estrazione fallita a meta',
+ * i chunk gia' indicizzati vanno rimossi.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkSealMessage implements Serializable {
+    private String fileId;
+    private Integer totalChunks;
+    private Map<String, String> metadata;
+    private boolean aborted;
+    private LocalDateTime timestamp;
+}
@@ -1,4 +1,4 @@
-package com.example.extraction.dto;
+package com.example.messaging.dto;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -6,6 +6,8 @@ import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
@@ -17,6 +19,20 @@ public class ExtractionCompletedMessage implements Serializable {
     private String errorMessage;
     private LocalDateTime timestamp;
     
+    // Plain-text artifact (files/{fileId}/extracted-text.txt[.gz])
+    private String textPath;
+    private Long textLength; // UTF-8 bytes, uncompressed
+    private String textEncoding; // identity, gzip
+    
+    private Integer priority; // priority of the extraction request, reused for indexing
+    private String requestId; // requestId of the extraction request
+    private String checksum; // checksum of the extraction request, forwarded to indexing
+    
+    // Small documents (extraction.inline.max-chars): chunks and metadata travel inline
+    // and are forwarded in the indexing request, null otherwise
+    private List<String> chunks;
+    private Map<String, String> metadata;
+    
     public ExtractionCompletedMessage(String fileId, String status, Integer chunksCount) {
         this.fileId = fileId;
         this.status = status;
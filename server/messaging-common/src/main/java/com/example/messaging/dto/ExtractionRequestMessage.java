@@ -0,0 +1,38 @@
+package com.example.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExtractionRequestMessage implements Serializable {
+    private String fileId;
+    private String originalFilename;
+    private LocalDateTime timestamp;
+    private Integer priority; // AMQP priority, echoed in ExtractionCompletedMessage
+    private String minioPath; // files/{fileId}/original.{ext} (null in older messages)
+    private Long fileSize; // bytes, used by the extraction admission control
+    private String requestId; // one per attempt, redeliveries keep it (consumer dedup)
+    private String checksum; // SHA-256 of the original: version key of the consumer dedup
+    private int attempt; // 0 on upload, reaper retry number afterwards
+    
+    public ExtractionRequestMessage(String fileId, String originalFilename, LocalDateTime timestamp) {
+        this.fileId = fileId;
+        this.originalFilename = originalFilename;
+        this.timestamp = timestamp;
+        this.requestId = UUID.randomUUID().toString();
+    }
+    
+    public ExtractionRequestMessage(String fileId, String originalFilename) {
+        this.fileId = fileId;
+        this.originalFilename = originalFilename;
+        this.timestamp = LocalDateTime.now();
+        this.requestId = UUID.randomUUID().toString();
+    }
+}
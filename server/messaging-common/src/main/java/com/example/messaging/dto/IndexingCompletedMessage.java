@@ -1,4 +1,4 @@
-package com.example.indexing.dto;
+package com.example.messaging.dto;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -16,6 +16,7 @@ public class IndexingCompletedMessage implements Serializable {
     private Integer indexedChunks;
     private String errorMessage;
     private LocalDateTime timestamp;
+    private String requestId; // requestId of the indexing request
     
     public IndexingCompletedMessage(String fileId, String status, Integer indexedChunks) {
         this.fileId = fileId;
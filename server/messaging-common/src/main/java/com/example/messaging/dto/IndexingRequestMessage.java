@@ -0,0 +1,38 @@
+package com.example.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IndexingRequestMessage implements Serializable {
+    private String fileId;
+    private LocalDateTime timestamp;
+    private String requestId; // one per attempt, redeliveries keep it (consumer dedup)
+    private String checksum; // SHA-256 of the original: version key of the consumer dedup
+    private int attempt; // 0 after extraction, reaper retry number afterwards
+    
+    // Inline extraction result of small documents: no download of extracted-text.json
+    private List<String> chunks;
+    private Map<String, String> metadata;
+    
+    public IndexingRequestMessage(String fileId) {
+        this.fileId = fileId;
+        this.timestamp = LocalDateTime.now();
+        this.requestId = UUID.randomUUID().toString();
+    }
+    
+    public IndexingRequestMessage(String fileId, List<String> chunks, Map<String, String> metadata) {
+        this(fileId);
+        this.chunks = chunks;
+        this.metadata = metadata;
+    }
+}
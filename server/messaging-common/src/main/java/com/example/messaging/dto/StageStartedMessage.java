@@ -0,0 +1,29 @@
+package com.example.messaging.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Pubblicato dal worker quando inizia davvero una fase (richiesta ammessa e presa in carico),
+ * non quando la richiesta viene accodata: e' il riferimento delle deadline dello StuckJobReaper
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StageStartedMessage implements Serializable {
+    private String fileId;
+    private String stage; // extraction, indexing
+    private String requestId; // requestId of the request being processed
+    private LocalDateTime timestamp;
+    
+    public StageStartedMessage(String fileId, String stage, String requestId) {
+        this.fileId = fileId;
+        this.stage = stage;
+        this.requestId = requestId;
+        this.timestamp = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.messaging.idempotency;
+
+/**
+ * Storage condiviso tra le istanze dei marker di ProcessedMessageStore
+ * (il MinioService di ogni servizio)
+ */
+public interface MarkerStore {
+
+    /**
+     * Contenuto dell'oggetto, null se non esiste
+     */
+    String readIfExists(String objectName);
+
+    void uploadJson(String objectName, String jsonContent);
+}
@@ -0,0 +1,138 @@
+package com.example.messaging.idempotency;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro del lavoro gia' svolto, per consumer idempotenti: la consegna RabbitMQ e'
+ * at-least-once e una riconsegna, o un retry del reaper, non deve ripetere il lavoro
+ * gia' completato per la stessa versione del documento.
+ * <p>
+ * La chiave e' fileId + versione: il checksum del contenuto (lo stesso file da' lo stesso
+ * risultato, qualunque sia il tentativo), o il requestId per i messaggi senza checksum.
+ * L'esito (il messaggio di completamento) e' tenuto in una cache LRU locale e, in
+ * background, in files/{fileId}/processed/{stage}.json, condiviso tra le istanze, con la
+ * versione a cui si riferisce. Il marker viene letto solo per i messaggi riconsegnati o
+ * ritentati (remote-check=redelivered), sempre (always) o mai (never).
+ */
+@Slf4j
+public class ProcessedMessageStore {
+
+    private final MarkerStore markerStore;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String remoteCheck;
+    private final Map<String, String> cache;
+    private final ThreadPoolExecutor writer;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public ProcessedMessageStore(MarkerStore markerStore, MeterRegistry meterRegistry,
+                                 boolean enabled, int cacheSize, String remoteCheck) {
+        this.markerStore = markerStore;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.remoteCheck = remoteCheck;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        // Il marker e' un'ottimizzazione: se la coda e' piena si scarta
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1000),
+                r -> new Thread(r, "dedup-writer"), new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Versione del lavoro richiesto: il checksum del contenuto, altrimenti il requestId
+     */
+    public static String version(String checksum, String requestId) {
+        return checksum != null ? checksum : requestId;
+    }
+
+    /**
+     * Esito del lavoro gia' svolto per fileId alla versione data, null se va svolto.
+     * retried: messaggio riconsegnato o ripubblicato dal reaper, l'unico caso in cui
+     * un'altra istanza puo' averlo gia' elaborato
+     */
+    public <T> T find(String stage, String fileId, String version, boolean retried, Class<T> type) {
+        if (!enabled || version == null) {
+            return null;
+        }
+        String key = key(stage, fileId, version);
+        try {
+            String json = cache.get(key);
+            if (json == null && ("always".equals(remoteCheck) || (retried && "redelivered".equals(remoteCheck)))) {
+                String marker = markerStore.readIfExists(path(stage, fileId));
+                if (marker != null) {
+                    JsonNode node = objectMapper.readTree(marker);
+                    if (version.equals(node.path("version").asText(null))) {
+                        json = objectMapper.writeValueAsString(node.path("completion"));
+                        cache.put(key, json);
+                    }
+                }
+            }
+            if (json == null) {
+                return null;
+            }
+            meterRegistry.counter("messages.deduplicated", "stage", stage).increment();
+            return objectMapper.readValue(json, type);
+        } catch (Exception e) {
+            log.warn("⚠️ Dedup lookup failed for fileId: {} ({}), processing anyway", fileId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Registra l'esito del lavoro completato per fileId alla versione data
+     */
+    public void record(String stage, String fileId, String version, Object completion) {
+        if (!enabled || version == null) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(completion);
+            cache.put(key(stage, fileId, version), json);
+            ObjectNode marker = objectMapper.createObjectNode();
+            marker.put("version", version);
+            marker.set("completion", objectMapper.readTree(json));
+            String markerJson = objectMapper.writeValueAsString(marker);
+            writer.execute(() -> {
+                try {
+                    markerStore.uploadJson(path(stage, fileId), markerJson);
+                } catch (Exception e) {
+                    log.warn("⚠️ Could not store dedup marker for fileId: {}", fileId);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("⚠️ Could not record processed request for fileId: {}", fileId, e);
+        }
+    }
+
+    private String key(String stage, String fileId, String version) {
+        return stage + ":" + fileId + ":" + version;
+    }
+
+    private String path(String stage, String fileId) {
+        return "files/" + fileId + "/processed/" + stage + ".json";
+    }
+
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
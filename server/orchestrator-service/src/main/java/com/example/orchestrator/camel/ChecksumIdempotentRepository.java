@@ -0,0 +1,62 @@
+package com.example.orchestrator.camel;
+
+import com.example.orchestrator.repository.FileMetadataRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Repository idempotente dell'acquisizione da directory, con chiave il checksum SHA-256
+ * del contenuto: un file gia' caricato, anche con un altro nome o in un altro percorso,
+ * viene scartato senza upload su MinIO. I documenti gia' acquisiti sono quelli in H2
+ * (lo stesso checksum della deduplicazione di DocumentUploadService), quelli in
+ * lavorazione sono tenuti in memoria fino alla conferma.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "file-polling.enabled", havingValue = "true", matchIfMissing = false)
+public class ChecksumIdempotentRepository extends ServiceSupport implements IdempotentRepository {
+
+    private final FileMetadataRepository repository;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean add(String checksum) {
+        if (!repository.existsByChecksum(checksum) && inProgress.add(checksum)) {
+            return true;
+        }
+        log.info("⏭️ Contenuto gia' acquisito o in lavorazione (checksum {}), upload saltato", checksum);
+        return false;
+    }
+
+    @Override
+    public boolean contains(String checksum) {
+        return inProgress.contains(checksum) || repository.existsByChecksum(checksum);
+    }
+
+    @Override
+    public boolean remove(String checksum) {
+        return inProgress.remove(checksum);
+    }
+
+    /**
+     * Upload completato: da qui in poi il checksum e' in H2
+     */
+    @Override
+    public boolean confirm(String checksum) {
+        inProgress.remove(checksum);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        inProgress.clear();
+    }
+}
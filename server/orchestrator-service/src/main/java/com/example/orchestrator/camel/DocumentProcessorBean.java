@@ -4,16 +4,20 @@ import com.example.orchestrator.service.DocumentUploadService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.Exchange;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 
 /**
  * Bean Spring che processa i documenti intercettati da Apache Camel.
- * Converte il File in MultipartFile e lo invia al servizio di upload.
+ * Il checksum viene calcolato prima dell'upload, cosi' i duplicati non arrivano a MinIO;
+ * i file nuovi vengono poi inviati in streaming al servizio di upload.
  */
 @Component("documentProcessorBean")
 @Slf4j
@@ -22,102 +26,96 @@ public class DocumentProcessorBean {
 
     private final DocumentUploadService uploadService;
 
+    @Value("${file-polling.priority:2}")
+    private int priority;
+
+    /**
+     * Calcola il checksum SHA-256 del file (header DocumentChecksum), chiave del
+     * consumer idempotente delle corsie
+     */
+    public void computeChecksum(Exchange exchange) throws Exception {
+        File file = exchange.getIn().getBody(File.class);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        exchange.getIn().setHeader(FilePollingRoute.CHECKSUM, HexFormat.of().formatHex(digest.digest()));
+    }
+
     /**
      * Processa un documento dal file system e lo invia all'orchestrator
-     * 
+     *
      * @param exchange Camel Exchange contenente il file
      * @throws Exception se il processamento fallisce
      */
     public void processDocument(Exchange exchange) throws Exception {
         File file = exchange.getIn().getBody(File.class);
         String filename = exchange.getIn().getHeader("CamelFileName", String.class);
-        
-        log.info("🔄 Inizio processamento documento: {} ({} bytes)", 
-                filename, file.length());
-
-        try {
-            // Crea un MultipartFile wrapper per il File
-            MultipartFile multipartFile = new MultipartFile() {
-                @Override
-                public String getName() {
-                    return "file";
-                }
-
-                @Override
-                public String getOriginalFilename() {
-                    return filename;
-                }
-
-                @Override
-                public String getContentType() {
-                    // Determina il content type dal nome file
-                    if (filename.endsWith(".pdf")) return "application/pdf";
-                    if (filename.endsWith(".docx")) return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-                    if (filename.endsWith(".doc")) return "application/msword";
-                    if (filename.endsWith(".xlsx")) return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
-                    if (filename.endsWith(".xls")) return "application/vnd.ms-excel";
-                    if (filename.endsWith(".txt")) return "text/plain";
-                    if (filename.endsWith(".html") || filename.endsWith(".htm")) return "text/html";
-                    return "application/octet-stream";
-                }
-
-                @Override
-                public boolean isEmpty() {
-                    return file.length() == 0;
-                }
-
-                @Override
-                public long getSize() {
-                    return file.length();
-                }
-
-                @Override
-                public byte[] getBytes() throws java.io.IOException {
-                    try (InputStream is = new FileInputStream(file)) {
-                        return is.readAllBytes();
-                    }
-                }
-
-                @Override
-                public InputStream getInputStream() throws java.io.IOException {
-                    return new FileInputStream(file);
-                }
-
-                @Override
-                public void transferTo(File dest) throws java.io.IOException {
-                    throw new UnsupportedOperationException();
-                }
+        String checksum = exchange.getIn().getHeader(FilePollingRoute.CHECKSUM, String.class);
 
-                @Override
-                public org.springframework.core.io.Resource getResource() {
-                    try {
-                        return new org.springframework.core.io.InputStreamResource(getInputStream()) {
-                            @Override
-                            public String getFilename() {
-                                return filename;
-                            }
-                            
-                            @Override
-                            public long contentLength() {
-                                return file.length();
-                            }
-                        };
-                    } catch (java.io.IOException e) {
-                        throw new RuntimeException("Cannot create resource", e);
-                    }
-                }
-            };
+        log.info("🔄 Inizio processamento documento: {} ({} bytes)",
+                filename, file.length());
 
-            // Upload il documento
-            var result = uploadService.uploadDocument(multipartFile);
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            // Upload il documento (checksum gia' calcolato da computeChecksum)
+            var result = uploadService.uploadDocument(inputStream, filename, file.length(), contentTypeOf(filename),
+                    priority, checksum);
             String fileId = result.getId();
-            
+
             log.info("✅ Documento caricato con successo: {} - FileID: {}", filename, fileId);
             exchange.getIn().setHeader("FileId", fileId);
-            
+
         } catch (Exception e) {
             log.error("❌ Errore nel processamento di {}: {}", filename, e.getMessage(), e);
             throw e; // Rilancia per gestione errori della route
         }
     }
+
+    /**
+     * Attende che il file non venga piu' modificato (dimensione e data di modifica
+     * invariate tra due controlli). Imposta l'header DocumentFileReady: false se il file
+     * e' sparito o non si e' stabilizzato entro il timeout (ci pensera' il polling di fallback).
+     */
+    public void awaitStableFile(Exchange exchange, long checkIntervalMs, long timeoutMs) throws InterruptedException {
+        File file = exchange.getIn().getBody(File.class);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long lastLength = -1;
+        long lastModified = -1;
+
+        while (file.exists() && System.currentTimeMillis() < deadline) {
+            long length = file.length();
+            long modified = file.lastModified();
+            if (length > 0 && length == lastLength && modified == lastModified) {
+                exchange.getIn().setHeader(Exchange.FILE_LENGTH, length);
+                exchange.getIn().setHeader(FilePollingRoute.FILE_READY, true);
+                return;
+            }
+            lastLength = length;
+            lastModified = modified;
+            Thread.sleep(checkIntervalMs);
+        }
+
+        if (file.exists()) {
+            log.warn("⏳ File ancora in scrittura dopo {}ms, lasciato al polling: {}", timeoutMs, file.getName());
+        }
+        exchange.getIn().setHeader(FilePollingRoute.FILE_READY, false);
+    }
+
+    /**
+     * Determina il content type dal nome file
+     */
+    private String contentTypeOf(String filename) {
+        if (filename.endsWith(".pdf")) return "application/pdf";
+        if (filename.endsWith(".docx")) return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+        if (filename.endsWith(".doc")) return "application/msword";
+        if (filename.endsWith(".xlsx")) return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+        if (filename.endsWith(".xls")) return "application/vnd.ms-excel";
+        if (filename.endsWith(".txt")) return "text/plain";
+        if (filename.endsWith(".html") || filename.endsWith(".htm")) return "text/html";
+        return "application/octet-stream";
+    }
 }
@@ -1,23 +1,52 @@
 package com.example.orchestrator.camel;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.processor.idempotent.MemoryIdempotentRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 /**
- * Route Apache Camel per il polling automatico di documenti da una directory.
- * Monitora una directory configurabile e quando arrivano nuovi file
- * li processa automaticamente tramite l'orchestrator.
+ * Route Apache Camel per l'acquisizione automatica di documenti da una directory.
+ * In modalita' "watch" (default) i file vengono intercettati dagli eventi del
+ * file system (WatchService) e il polling resta attivo con un intervallo lungo
+ * come fallback (file presenti all'avvio, eventi persi). In modalita' "poll"
+ * viene usato solo il polling.
+ * Le due route condividono un repository dei file in lavorazione, cosi' lo stesso
+ * file non viene mai processato due volte in parallelo. Nelle corsie il consumer
+ * idempotente ha come chiave il checksum del contenuto (ChecksumIdempotentRepository):
+ * un documento gia' acquisito non viene ricaricato, qualunque sia il nome del file.
  */
 @Component
 @Slf4j
+@RequiredArgsConstructor
 @ConditionalOnProperty(name = "file-polling.enabled", havingValue = "true", matchIfMissing = false)
 public class FilePollingRoute extends RouteBuilder {
 
+    static final String INGEST_KEY = "DocumentIngestKey";
+    static final String FILE_READY = "DocumentFileReady";
+    static final String CHECKSUM = "DocumentChecksum";
+
+    private static final String LANE_ROUTER = "direct:document-lane";
+    private static final String SMALL_LANE = "direct:document-small-lane";
+    private static final String LARGE_LANE = "direct:document-large-lane";
+
+    // Pattern per accettare documenti comuni
+    private static final String INCLUDE_PATTERN = ".*\\.(pdf|doc|docx|xls|xlsx|txt|html|htm|rtf|odt|ods|csv|xml|json|md)$";
+
+    @Value("${file-polling.mode:watch}")
+    private String mode;
+
     @Value("${file-polling.input-directory:/watch}")
     private String inputDirectory;
 
@@ -30,65 +59,225 @@ public class FilePollingRoute extends RouteBuilder {
     @Value("${file-polling.delay:5000}")
     private int pollingDelay;
 
+    @Value("${file-polling.fallback-delay:60000}")
+    private int fallbackDelay;
+
     @Value("${file-polling.initial-delay:10000}")
     private int initialDelay;
 
     @Value("${file-polling.max-concurrent:2}")
     private int maxConcurrent;
 
+    @Value("${file-polling.max-messages-per-poll:500}")
+    private int maxMessagesPerPoll;
+
+    @Value("${file-polling.sort-by:size}")
+    private String sortBy;
+
+    @Value("${file-polling.greedy:false}")
+    private boolean greedy;
+
+    @Value("${file-polling.min-file-age-ms:1000}")
+    private long minFileAgeMs;
+
+    @Value("${file-polling.large-file-threshold:104857600}")
+    private long largeFileThreshold;
+
+    @Value("${file-polling.large-max-concurrent:1}")
+    private int largeMaxConcurrent;
+
+    @Value("${file-polling.stable-check-ms:250}")
+    private long stableCheckMs;
+
+    @Value("${file-polling.stable-timeout-ms:30000}")
+    private long stableTimeoutMs;
+
+    private final ChecksumIdempotentRepository checksumRepository;
+
+    private final IdempotentRepository inProgressRepository =
+            MemoryIdempotentRepository.memoryIdempotentRepository(10000);
+
     @Override
     public void configure() throws Exception {
-        
+
         // Crea le directory se non esistono
         createDirectoriesIfNotExist();
+        getContext().getRegistry().bind("fileInProgressRepository", inProgressRepository);
+
+        boolean watchMode = "watch".equalsIgnoreCase(mode);
 
-        log.info("🚀 ===== AVVIO ROUTE DI POLLING FILE DOCUMENTI =====");
+        log.info("🚀 ===== AVVIO ROUTE DI ACQUISIZIONE FILE DOCUMENTI =====");
         log.info("📂 Directory input: {}", new File(inputDirectory).getAbsolutePath());
         log.info("✅ Directory processati: {}", new File(processedDirectory).getAbsolutePath());
         log.info("❌ Directory errori: {}", new File(errorDirectory).getAbsolutePath());
-        log.info("⏱️  Polling delay: {}ms", pollingDelay);
+        log.info("👁️  Modalita': {}", watchMode ? "watch (eventi file system + polling di fallback)" : "poll");
+        log.info("⏱️  Polling delay: {}ms", watchMode ? fallbackDelay : pollingDelay);
         log.info("🔍 Pattern file: tutti i formati supportati");
+        log.info("📦 Max file per poll: {} (ordinamento: {})", maxMessagesPerPoll, sortBy);
+        log.info("🐘 File grandi (> {} bytes): {} in parallelo, altri: {}", largeFileThreshold, largeMaxConcurrent, maxConcurrent);
+
+        configureLanes();
+
+        if (watchMode) {
+            configureWatchRoute();
+        }
 
-        // Route principale per il polling
-        from(buildFileEndpoint())
+        // Route di polling (in modalita' watch fa da fallback)
+        from(buildFileEndpoint(watchMode ? fallbackDelay : pollingDelay))
             .routeId("document-polling-route")
-            .log("📥 Nuovo documento rilevato: ${header.CamelFileName}")
-            
-            // Limita il numero di file processati in parallelo
-            .threads().poolSize(maxConcurrent).maxPoolSize(maxConcurrent)
-            
-            // Gestione errori: se fallisce, sposta in error-directory
+
+            // Gestione errori: l'eccezione non viene gestita, cosi' il file
+            // consumer sposta il file in error-directory (moveFailed)
             .onException(Exception.class)
                 .log("❌ Errore nel processamento di ${header.CamelFileName}: ${exception.message}")
+            .end()
+
+            .log("📥 Nuovo documento rilevato: ${header.CamelFileName}")
+
+            // Processa il file nella corsia adatta alla dimensione; se tutto OK
+            // il file consumer lo sposta (rename, nessuna copia) nella processed-directory
+            .to(LANE_ROUTER)
+            .log("✅ File processato: ${header.CamelFileName}");
+    }
+
+    /**
+     * Corsie di elaborazione: i file grandi hanno un proprio pool, cosi' un file
+     * da diversi GB non blocca i documenti piccoli che arrivano dopo di lui.
+     * In ogni corsia si calcola il checksum del file e i duplicati terminano qui,
+     * senza upload (il file consumer li sposta comunque nella processed-directory).
+     * Gli errori vengono gestiti dalla route chiamante (watch o polling).
+     */
+    private void configureLanes() {
+        from(LANE_ROUTER)
+            .routeId("document-lane-router")
+            .errorHandler(noErrorHandler())
+            .choice()
+                .when(header(Exchange.FILE_LENGTH).isGreaterThan(largeFileThreshold))
+                    .to(LARGE_LANE)
+                .otherwise()
+                    .to(SMALL_LANE)
+            .end();
+
+        configureLane(SMALL_LANE, "document-small-lane", maxConcurrent, "ingest-small");
+        configureLane(LARGE_LANE, "document-large-lane", largeMaxConcurrent, "ingest-large");
+    }
+
+    private void configureLane(String endpoint, String routeId, int poolSize, String threadName) {
+        from(endpoint)
+            .routeId(routeId)
+            .errorHandler(noErrorHandler())
+            .threads().poolSize(poolSize).maxPoolSize(poolSize).threadName(threadName)
+            .bean("documentProcessorBean", "computeChecksum")
+            .idempotentConsumer(header(CHECKSUM), checksumRepository)
+                .skipDuplicate(true)
+                .removeOnFailure(true)
+            .bean("documentProcessorBean", "processDocument");
+    }
+
+    /**
+     * Route guidata dagli eventi del file system: reagisce in millisecondi
+     * invece di attendere il prossimo ciclo di polling.
+     */
+    private void configureWatchRoute() {
+        String watchEndpoint = String.format(
+            "file-watch:%s?events=CREATE,MODIFY&recursive=false&useFileHashing=false",
+            new File(inputDirectory).getAbsolutePath()
+        );
+
+        from(watchEndpoint)
+            .routeId("document-watch-route")
+
+            .onException(Exception.class)
                 .handled(true)
-                .to("file:" + errorDirectory)
+                .log("❌ Errore nel processamento di ${header.CamelFileName}: ${exception.message}")
+                .process(exchange -> moveFile(exchange, errorDirectory))
                 .log("📁 File spostato in error-directory: ${header.CamelFileName}")
+                .process(this::release)
+            .end()
+
+            .filter(header("CamelFileName").regex(INCLUDE_PATTERN))
+            .setHeader(INGEST_KEY, simple("${header.CamelFileAbsolutePath}"))
+
+            // Eventi ripetuti (MODIFY durante la scrittura) o lo stesso file preso
+            // dal polling di fallback vengono scartati finche' il file e' in lavorazione;
+            // i duplicati di contenuto sono scartati nelle corsie (checksum)
+            .idempotentConsumer(header(INGEST_KEY), inProgressRepository)
+                .skipDuplicate(true)
+                .removeOnFailure(true)
+
+            .threads().poolSize(maxConcurrent).maxPoolSize(maxConcurrent).threadName("ingest-watch")
+
+            // Attende che il file non venga piu' scritto
+            .bean("documentProcessorBean", "awaitStableFile(${exchange}, " + stableCheckMs + ", " + stableTimeoutMs + ")")
+            .choice()
+                .when(header(FILE_READY).isEqualTo(true))
+                    .log("📥 Nuovo documento rilevato: ${header.CamelFileName}")
+                    .to(LANE_ROUTER)
+                    .process(exchange -> moveFile(exchange, processedDirectory))
+                    .log("✅ File processato e spostato: ${header.CamelFileName}")
             .end()
-            
-            // Processa il file con il bean
-            .bean("documentProcessorBean", "processDocument")
-            
-            // Se tutto OK, sposta il file nella processed-directory
-            .to("file:" + processedDirectory)
-            .log("✅ File processato e spostato: ${header.CamelFileName}");
+            .process(this::release);
     }
 
     /**
      * Costruisce l'endpoint Camel File con tutti i parametri configurati.
+     * readLock=changed salta i file ancora in scrittura (quelli piu' vecchi di
+     * min-file-age-ms vengono accettati subito); ogni poll prende al massimo
+     * max-messages-per-poll file, scelti dopo l'ordinamento dell'intera directory.
      */
-    private String buildFileEndpoint() {
-        // Pattern per accettare documenti comuni
-        String pattern = ".*\\.(pdf|doc|docx|xls|xlsx|txt|html|htm|rtf|odt|ods|csv|xml|json|md)$";
-        
+    private String buildFileEndpoint(int delay) {
         return String.format(
-            "file:%s?delay=%d&initialDelay=%d&include=%s&noop=false&delete=true",
-            inputDirectory,
-            pollingDelay,
+            "file:%s?delay=%d&initialDelay=%d&include=%s" +
+            "&readLock=changed&readLockCheckInterval=%d&readLockTimeout=%d&readLockMinAge=%d" +
+            "&maxMessagesPerPoll=%d&eagerMaxMessagesPerPoll=false&greedy=%b%s" +
+            "&move=%s/${file:name}&moveFailed=%s/${file:name}" +
+            "&inProgressRepository=#fileInProgressRepository",
+            new File(inputDirectory).getAbsolutePath(),
+            delay,
             initialDelay,
-            pattern
+            INCLUDE_PATTERN,
+            stableCheckMs,
+            stableTimeoutMs,
+            minFileAgeMs,
+            maxMessagesPerPoll,
+            greedy,
+            sortOption(),
+            new File(processedDirectory).getAbsolutePath(),
+            new File(errorDirectory).getAbsolutePath()
         );
     }
 
+    /**
+     * size = prima i file piu' piccoli, age = prima i file meno recenti, none = ordine della directory
+     */
+    private String sortOption() {
+        switch (sortBy.toLowerCase()) {
+            case "size":
+                return "&sortBy=file:length";
+            case "age":
+                return "&sortBy=file:modified";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Sposta (rename) il file intercettato dalla route watch
+     */
+    private void moveFile(Exchange exchange, String directory) throws Exception {
+        Path source = Paths.get(exchange.getIn().getHeader("CamelFileAbsolutePath", String.class));
+        if (Files.exists(source)) {
+            Files.move(source, Paths.get(directory).resolve(source.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void release(Exchange exchange) {
+        String key = exchange.getIn().getHeader(INGEST_KEY, String.class);
+        if (key != null) {
+            inProgressRepository.remove(key);
+        }
+    }
+
     /**
      * Crea le directory necessarie se non esistono
      */
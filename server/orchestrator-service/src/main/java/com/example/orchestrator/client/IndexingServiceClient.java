@@ -1,66 +1,160 @@
 package com.example.orchestrator.client;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.springframework.beans.factory.annotation.Value;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClient;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+/**
+ * Client di indexing-service. Ogni chiamata passa da un bulkhead (limite di
+ * chiamate concorrenti) e da un circuit breaker, configurati in
+ * resilience4j.*.instances.indexing-service: se indexing-service rallenta
+ * le richieste falliscono subito invece di accumulare thread.
+ */
 @Component
 public class IndexingServiceClient {
 
+    private static final String INSTANCE = "indexing-service";
+    private static final List<String> PROXIED_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_ENCODING);
+
     private final RestClient restClient;
-    private final String indexingServiceUrl;
+    private final Bulkhead bulkhead;
+    private final CircuitBreaker circuitBreaker;
 
     public IndexingServiceClient(
             RestClient restClient,
+            BulkheadRegistry bulkheadRegistry,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${indexing.service.url:http://indexing-service:8082}") String indexingServiceUrl) {
-        this.restClient = restClient;
-        this.indexingServiceUrl = indexingServiceUrl;
+        this.restClient = restClient.mutate().baseUrl(indexingServiceUrl).build();
+        this.bulkhead = bulkheadRegistry.bulkhead(INSTANCE);
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(INSTANCE);
     }
 
     public List<Map<String, Object>> search(String query, Integer maxResults) {
-        String url = indexingServiceUrl + "/api/search?q=" + query + "&maxResults=" + maxResults;
-        return restClient.get()
-                .uri(url)
+        return call(() -> restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/search")
+                        .queryParam("q", query)
+                        .queryParam("maxResults", maxResults)
+                        .build())
                 .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {}));
     }
 
     public List<Map<String, Object>> searchPost(Map<String, Object> request) {
-        String url = indexingServiceUrl + "/api/search/query";
-        return restClient.post()
-                .uri(url)
+        return call(() -> restClient.post()
+                .uri("/api/search/query")
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(request)
                 .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {}));
     }
 
     public List<Map<String, Object>> searchRaw(String query) {
-        String url = indexingServiceUrl + "/api/search/raw?q=" + query;
-        return restClient.get()
-                .uri(url)
+        return call(() -> restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/search/raw")
+                        .queryParam("q", query)
+                        .build())
                 .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {}));
     }
 
     public List<String> getIndexedFiles() {
-        String url = indexingServiceUrl + "/api/search/files";
-        return restClient.get()
-                .uri(url)
+        return call(() -> restClient.get()
+                .uri("/api/search/files")
                 .retrieve()
-                .body(new ParameterizedTypeReference<List<String>>() {});
+                .body(new ParameterizedTypeReference<List<String>>() {}));
     }
 
     public void deleteDocument(String documentId) {
-        String url = indexingServiceUrl + "/api/search/documents/" + documentId;
-        restClient.delete()
-                .uri(url)
+        call(() -> restClient.delete()
+                .uri("/api/search/documents/{documentId}", documentId)
                 .retrieve()
-                .toBodilessEntity();
+                .toBodilessEntity());
+    }
+
+    // ========================================
+    // Pass-through: the upstream body is copied as bytes to the client
+    // response, without deserializing and re-serializing the JSON
+    // ========================================
+
+    public void proxySearch(String query, Integer maxResults, HttpServletResponse response) {
+        proxy(restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/search")
+                        .queryParam("q", query)
+                        .queryParam("maxResults", maxResults)
+                        .build()), response);
+    }
+
+    public void proxySearchPost(Map<String, Object> request, HttpServletResponse response) {
+        proxy(restClient.post()
+                .uri("/api/search/query")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(request), response);
+    }
+
+    public void proxySearchRaw(String query, HttpServletResponse response) {
+        proxy(restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/search/raw")
+                        .queryParam("q", query)
+                        .build()), response);
+    }
+
+    public void proxyIndexedFiles(HttpServletResponse response) {
+        proxy(restClient.get().uri("/api/search/files"), response);
+    }
+
+    /**
+     * Copia status, header di contenuto e body della risposta upstream.
+     * Le risposte 5xx non vengono inoltrate ma sollevano HttpServerErrorException,
+     * cosi' vengono contate dal circuit breaker come nelle chiamate normali.
+     */
+    private void proxy(RestClient.RequestHeadersSpec<?> request, HttpServletResponse response) {
+        call(() -> request.exchange((clientRequest, upstream) -> {
+            HttpStatusCode status = upstream.getStatusCode();
+            if (status.is5xxServerError()) {
+                throw HttpServerErrorException.create(status, upstream.getStatusText(), upstream.getHeaders(),
+                        StreamUtils.copyToByteArray(upstream.getBody()), null);
+            }
+            response.setStatus(status.value());
+            HttpHeaders headers = upstream.getHeaders();
+            for (String name : PROXIED_HEADERS) {
+                String value = headers.getFirst(name);
+                if (value != null) {
+                    response.setHeader(name, value);
+                }
+            }
+            StreamUtils.copy(upstream.getBody(), response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        }));
+    }
+
+    /**
+     * Bulkhead esterno: con il circuito aperto la chiamata fallisce senza occupare
+     * un permesso, e le chiamate rifiutate dal bulkhead non aprono il circuito.
+     */
+    private <T> T call(Supplier<T> supplier) {
+        return Bulkhead.decorateSupplier(bulkhead,
+                CircuitBreaker.decorateSupplier(circuitBreaker, supplier)).get();
     }
 }
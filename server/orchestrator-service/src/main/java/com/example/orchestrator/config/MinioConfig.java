@@ -4,6 +4,7 @@ import io.minio.MinioClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Configuration
 public class MinioConfig {
@@ -17,11 +18,32 @@ public class MinioConfig {
     @Value("${minio.secret-key}")
     private String secretKey;
     
+    // Endpoint raggiungibile dai client per gli URL presigned (default: minio.endpoint)
+    @Value("${minio.public-endpoint:}")
+    private String publicEndpoint;
+    
+    @Value("${minio.region:us-east-1}")
+    private String region;
+    
     @Bean
+    @Primary
     public MinioClient minioClient() {
         return MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
                 .build();
     }
+    
+    /**
+     * Client usato solo per firmare gli URL presigned: la firma e' locale
+     * (region impostata, nessuna chiamata a MinIO) e usa l'host pubblico.
+     */
+    @Bean
+    public MinioClient presignMinioClient() {
+        return MinioClient.builder()
+                .endpoint(publicEndpoint.isBlank() ? endpoint : publicEndpoint)
+                .region(region)
+                .credentials(accessKey, secretKey)
+                .build();
+    }
 }
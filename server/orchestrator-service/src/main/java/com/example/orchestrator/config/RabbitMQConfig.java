@@ -1,20 +1,43 @@
 package com.example.orchestrator.config;
 
+import com.example.messaging.amqp.ExtractionLanes;
+import com.example.messaging.amqp.MessageConverters;
+import com.example.messaging.amqp.QueueArgumentsMigrator;
+import com.example.messaging.amqp.RequestQueues;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RabbitMQConfig {
     
+    // Code di richiesta con gli stessi argomenti in tutti i servizi (rabbitmq.queue.*)
+    private final RequestQueues requestQueues;
+    
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
     
+    @Value("${rabbitmq.max-priority:10}")
+    private int maxPriority;
+    
+    @Value("${rabbitmq.exchange.dead-letter}")
+    private String deadLetterExchangeName;
+    
+    @Value("${rabbitmq.queue.dead-letter}")
+    private String deadLetterQueue;
+    
+    // Tipo delle code di richiesta (vedi RequestQueues), anche per la dead-letter queue
+    @Value("${rabbitmq.queue.type:classic}")
+    private String queueType;
+    
     @Value("${rabbitmq.queue.extraction-requests}")
     private String extractionRequestsQueue;
     
@@ -39,18 +62,50 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing-key.indexing-completed}")
     private String indexingCompletedKey;
     
+    @Value("${rabbitmq.queue.stage-started:pipeline-stage-started}")
+    private String stageStartedQueue;
+    
+    @Value("${rabbitmq.routing-key.extraction-started:extraction.started}")
+    private String extractionStartedKey;
+    
+    @Value("${rabbitmq.routing-key.indexing-started:indexing.started}")
+    private String indexingStartedKey;
+    
+    public RabbitMQConfig(Environment environment) {
+        this.requestQueues = RequestQueues.from(environment);
+    }
+    
     // Exchange
     @Bean
     public TopicExchange exchange() {
         return new TopicExchange(exchangeName);
     }
     
+    // Dead-letter exchange: requests that exhausted their retries (see StuckJobReaper),
+    // published with their original routing key, and requests expired or rejected
+    // on their queue (x-dead-letter-exchange)
+    @Bean
+    public TopicExchange deadLetterExchange() {
+        return new TopicExchange(deadLetterExchangeName);
+    }
+    
     // Queues
     @Bean
     public Queue extractionRequestsQueue() {
-        return QueueBuilder.durable(extractionRequestsQueue)
-                .withArgument("x-message-ttl", 300000) // 5 minutes
-                .build();
+        return requestQueues.queue(extractionRequestsQueue, false);
+    }
+    
+    // Extraction lanes: {extraction-requests}.{lane} bound to {extraction-request}.{lane};
+    // the plain extraction-requests queue only drains messages published before the lanes
+    @Bean
+    public Declarables extractionLaneQueues() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (String lane : ExtractionLanes.LANES) {
+            Queue queue = requestQueues.queue(extractionRequestsQueue + "." + lane, true);
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange()).with(extractionRequestKey + "." + lane));
+        }
+        return new Declarables(declarables);
     }
     
     @Bean
@@ -60,9 +115,7 @@ public class RabbitMQConfig {
     
     @Bean
     public Queue indexingRequestsQueue() {
-        return QueueBuilder.durable(indexingRequestsQueue)
-                .withArgument("x-message-ttl", 300000)
-                .build();
+        return requestQueues.queue(indexingRequestsQueue, true);
     }
     
     @Bean
@@ -70,6 +123,25 @@ public class RabbitMQConfig {
         return new Queue(indexingCompletedQueue, true);
     }
     
+    // Pickup events of both stages (see StageStartedConsumer)
+    @Bean
+    public Queue stageStartedQueue() {
+        return new Queue(stageStartedQueue, true);
+    }
+    
+    // Dead-letter queue: same type as the request queues (it can hold a whole backlog),
+    // no TTL, drained by DeadLetterReplayService
+    @Bean
+    public Queue deadLetterQueue() {
+        QueueBuilder builder = QueueBuilder.durable(deadLetterQueue);
+        if ("quorum".equals(queueType)) {
+            builder.quorum();
+        } else if ("lazy".equals(queueType)) {
+            builder.withArgument("x-queue-mode", "lazy");
+        }
+        return builder.build();
+    }
+    
     // Bindings
     @Bean
     public Binding extractionRequestBinding() {
@@ -103,17 +175,50 @@ public class RabbitMQConfig {
                 .with(indexingCompletedKey);
     }
     
-    // Message Converter
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public Binding extractionStartedBinding() {
+        return BindingBuilder
+                .bind(stageStartedQueue())
+                .to(exchange())
+                .with(extractionStartedKey);
+    }
+    
+    @Bean
+    public Binding indexingStartedBinding() {
+        return BindingBuilder
+                .bind(stageStartedQueue())
+                .to(exchange())
+                .with(indexingStartedKey);
+    }
+    
+    @Bean
+    public Binding deadLetterBinding() {
+        return BindingBuilder
+                .bind(deadLetterQueue())
+                .to(deadLetterExchange())
+                .with("#");
+    }
+    
+    // Existing queues declared with other arguments (type, priority, TTL): see QueueArgumentsMigrator
+    @Bean
+    public QueueArgumentsMigrator queueArgumentsMigrator(ConnectionFactory connectionFactory,
+                                                         @Value("${rabbitmq.queue.migrate:false}") boolean migrate) {
+        return new QueueArgumentsMigrator(connectionFactory, migrate);
+    }
+    
+    // Message Converter: JSON or CBOR by content_type, messaging.encoding for outgoing messages
+    @Bean
+    public MessageConverter messageConverter(@Value("${messaging.encoding:json}") String encoding) {
+        return MessageConverters.create(encoding);
     }
     
     // RabbitTemplate
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
-        template.setMessageConverter(jsonMessageConverter());
+        template.setMessageConverter(messageConverter);
+        // Unroutable messages are returned to the outbox relay instead of being dropped
+        template.setMandatory(true);
         return template;
     }
 }
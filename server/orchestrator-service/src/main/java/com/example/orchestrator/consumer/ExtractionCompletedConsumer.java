@@ -1,23 +1,27 @@
 package com.example.orchestrator.consumer;
 
-import com.example.orchestrator.dto.ExtractionCompletedMessage;
-import com.example.orchestrator.entity.FileMetadata;
-import com.example.orchestrator.repository.FileMetadataRepository;
+import com.example.messaging.dto.ExtractionCompletedMessage;
+import com.example.orchestrator.service.FileStatusStateMachine;
 import com.example.orchestrator.service.MessagePublisherService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-
-import java.time.LocalDateTime;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class ExtractionCompletedConsumer {
     
-    private final FileMetadataRepository repository;
+    private final FileStatusStateMachine stateMachine;
     private final MessagePublisherService messagePublisher;
+    private final TransactionTemplate transactionTemplate;
+    
+    // In choreography mode the extraction-service publishes the indexing request itself
+    @Value("${pipeline.choreography.enabled:false}")
+    private boolean choreography;
     
     @RabbitListener(queues = "${rabbitmq.queue.extraction-completed}")
     public void handleExtractionCompleted(ExtractionCompletedMessage message) {
@@ -26,33 +30,31 @@ public class ExtractionCompletedConsumer {
                 fileId, message.getStatus());
         
         try {
-            FileMetadata metadata = repository.findById(fileId)
-                    .orElseThrow(() -> new RuntimeException("File not found: " + fileId));
-            
             if ("SUCCESS".equals(message.getStatus())) {
-                // Update status: extraction completed
-                metadata.setExtractionStatus("COMPLETED");
-                metadata.setExtractionCompletedAt(LocalDateTime.now());
-                metadata.setMinioPathExtracted("files/" + fileId + "/extracted-text.json");
-                metadata.setUploadStatus("EXTRACTED");
+                // Update status and trigger indexing (status + outbox in the same transaction)
+                Boolean applied = transactionTemplate.execute(status -> {
+                    if (!stateMachine.extractionCompleted(fileId,
+                            message.getTextPath(), message.getTextLength(), message.getTextEncoding())) {
+                        return false;
+                    }
+                    if (!choreography) {
+                        messagePublisher.publishIndexingRequest(fileId, message.getPriority(),
+                                message.getChecksum(), 0, message.getChunks(), message.getMetadata());
+                    }
+                    return true;
+                });
                 
-                // Trigger indexing
-                metadata.setIndexingStatus("PENDING");
-                repository.save(metadata);
-                
-                log.info("✅ Extraction completed, triggering indexing for fileId: {}", fileId);
-                messagePublisher.publishIndexingRequest(fileId);
+                if (Boolean.TRUE.equals(applied)) {
+                    log.info("✅ Extraction completed{} for fileId: {}",
+                            choreography ? "" : ", triggering indexing", fileId);
+                }
                 
             } else {
                 // Extraction failed
-                metadata.setExtractionStatus("FAILED");
-                metadata.setExtractionError(message.getErrorMessage());
-                metadata.setUploadStatus("FAILED");
-                metadata.setExtractionCompletedAt(LocalDateTime.now());
-                repository.save(metadata);
-                
-                log.error("❌ Extraction failed for fileId: {} - Error: {}", 
-                        fileId, message.getErrorMessage());
+                if (stateMachine.extractionFailed(fileId, message.getErrorMessage())) {
+                    log.error("❌ Extraction failed for fileId: {} - Error: {}", 
+                            fileId, message.getErrorMessage());
+                }
             }
             
         } catch (Exception e) {
@@ -1,21 +1,18 @@
 package com.example.orchestrator.consumer;
 
-import com.example.orchestrator.dto.IndexingCompletedMessage;
-import com.example.orchestrator.entity.FileMetadata;
-import com.example.orchestrator.repository.FileMetadataRepository;
+import com.example.messaging.dto.IndexingCompletedMessage;
+import com.example.orchestrator.service.FileStatusStateMachine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class IndexingCompletedConsumer {
     
-    private final FileMetadataRepository repository;
+    private final FileStatusStateMachine stateMachine;
     
     @RabbitListener(queues = "${rabbitmq.queue.indexing-completed}")
     public void handleIndexingCompleted(IndexingCompletedMessage message) {
@@ -24,28 +21,18 @@ public class IndexingCompletedConsumer {
                 fileId, message.getStatus());
         
         try {
-            FileMetadata metadata = repository.findById(fileId)
-                    .orElseThrow(() -> new RuntimeException("File not found: " + fileId));
-            
             if ("SUCCESS".equals(message.getStatus())) {
                 // Update status: indexing completed
-                metadata.setIndexingStatus("COMPLETED");
-                metadata.setIndexingCompletedAt(LocalDateTime.now());
-                metadata.setUploadStatus("INDEXED");
-                repository.save(metadata);
-                
-                log.info("🎉 Pipeline completed successfully for fileId: {}", fileId);
+                if (stateMachine.indexingCompleted(fileId)) {
+                    log.info("🎉 Pipeline completed successfully for fileId: {}", fileId);
+                }
                 
             } else {
                 // Indexing failed
-                metadata.setIndexingStatus("FAILED");
-                metadata.setIndexingError(message.getErrorMessage());
-                metadata.setUploadStatus("FAILED");
-                metadata.setIndexingCompletedAt(LocalDateTime.now());
-                repository.save(metadata);
-                
-                log.error("❌ Indexing failed for fileId: {} - Error: {}", 
-                        fileId, message.getErrorMessage());
+                if (stateMachine.indexingFailed(fileId, message.getErrorMessage())) {
+                    log.error("❌ Indexing failed for fileId: {} - Error: {}", 
+                            fileId, message.getErrorMessage());
+                }
             }
             
         } catch (Exception e) {
@@ -0,0 +1,40 @@
+package com.example.orchestrator.consumer;
+
+import com.example.messaging.dto.StageStartedMessage;
+import com.example.orchestrator.repository.FileMetadataRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Registra la presa in carico di una fase da parte di un worker:
+ * le deadline dello StuckJobReaper partono da qui
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StageStartedConsumer {
+    
+    private final FileMetadataRepository repository;
+    
+    @Transactional
+    @RabbitListener(queues = "${rabbitmq.queue.stage-started:pipeline-stage-started}")
+    public void handleStageStarted(StageStartedMessage message) {
+        String fileId = message.getFileId();
+        // Orologio dell'orchestrator, lo stesso con cui il reaper calcola le deadline
+        LocalDateTime pickedUpAt = LocalDateTime.now();
+        
+        int updated = "indexing".equals(message.getStage())
+                ? repository.markIndexingPickedUp(fileId, pickedUpAt)
+                : repository.markExtractionPickedUp(fileId, pickedUpAt);
+        if (updated == 0) {
+            log.debug("Stage {} started for fileId: {} after it moved on, ignored", message.getStage(), fileId);
+        } else {
+            log.debug("▶️ Stage {} picked up for fileId: {}", message.getStage(), fileId);
+        }
+    }
+}
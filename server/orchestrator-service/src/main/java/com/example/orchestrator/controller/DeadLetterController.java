@@ -0,0 +1,51 @@
+package com.example.orchestrator.controller;
+
+import com.example.orchestrator.service.DeadLetterReplayService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Dead-letter queue: stato e replay controllato (vedi DeadLetterReplayService)
+ */
+@RestController
+@RequestMapping("/api/dead-letters")
+@RequiredArgsConstructor
+public class DeadLetterController {
+
+    private final DeadLetterReplayService replayService;
+
+    /**
+     * GET /api/dead-letters - messaggi in coda e avanzamento dell'ultimo replay
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> status() {
+        return ResponseEntity.ok(replayService.status());
+    }
+
+    /**
+     * POST /api/dead-letters/replay?maxMessages=500&rate=20
+     * Rimette in coda fino a maxMessages messaggi, rate al secondo
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<Map<String, Object>> replay(
+            @RequestParam(required = false) Integer maxMessages,
+            @RequestParam(required = false) Double rate) {
+        if (!replayService.start(maxMessages, rate)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(replayService.status());
+        }
+        return ResponseEntity.accepted().body(replayService.status());
+    }
+
+    /**
+     * POST /api/dead-letters/replay/stop - interrompe il replay in corso
+     */
+    @PostMapping("/replay/stop")
+    public ResponseEntity<Map<String, Object>> stop() {
+        replayService.stop();
+        return ResponseEntity.ok(replayService.status());
+    }
+}
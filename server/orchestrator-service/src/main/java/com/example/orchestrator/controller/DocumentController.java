@@ -1,20 +1,34 @@
 package com.example.orchestrator.controller;
 
+import com.example.orchestrator.dto.DocumentCursor;
+import com.example.orchestrator.dto.DocumentPage;
+import com.example.orchestrator.dto.DocumentSummary;
 import com.example.orchestrator.entity.FileMetadata;
+import com.example.orchestrator.event.DocumentStatusChangedEvent;
+import com.example.orchestrator.service.DocumentEventBroadcaster;
 import com.example.orchestrator.service.DocumentUploadService;
+import com.example.orchestrator.service.StatusCounterStore;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 @Slf4j
 @RestController
@@ -25,17 +39,34 @@ public class DocumentController {
     private final DocumentUploadService uploadService;
     private final com.example.orchestrator.repository.FileMetadataRepository repository;
     private final com.example.orchestrator.client.IndexingServiceClient indexingServiceClient;
+    private final StatusCounterStore statusCounters;
+    private final DocumentEventBroadcaster eventBroadcaster;
+    
+    @Value("${documents.priority.upload:8}")
+    private int uploadPriority;
+    
+    @Value("${documents.list.max-page-size:500}")
+    private int maxPageSize;
+    
+    @Value("${documents.download.redirect:false}")
+    private boolean downloadRedirect;
+    
+    @Value("${documents.download.presigned-expiry-seconds:300}")
+    private int presignedExpirySeconds;
     
     /**
-     * Upload document
+     * Upload document. Interactive uploads get documents.priority.upload unless
+     * ?priority= is given (e.g. a low value for bulk backfills).
      */
     @PostMapping("/upload")
-    public ResponseEntity<Map<String, Object>> uploadDocument(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> uploadDocument(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) Integer priority) {
         try {
             log.info("📥 Received upload request for file: {} ({} bytes)", 
                     file.getOriginalFilename(), file.getSize());
             
-            FileMetadata metadata = uploadService.uploadDocument(file);
+            FileMetadata metadata = uploadService.uploadDocument(file, priority != null ? priority : uploadPriority);
             
             Map<String, Object> response = new HashMap<>();
             response.put("fileId", metadata.getId());
@@ -89,6 +120,38 @@ public class DocumentController {
         }
     }
     
+    /**
+     * Stream of status changes of all documents (Server-Sent Events)
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamAllEvents() {
+        try {
+            return ResponseEntity.ok(eventBroadcaster.subscribe(null, null));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+    
+    /**
+     * Stream of status changes of one document (Server-Sent Events).
+     * The first event is the current status.
+     */
+    @GetMapping(value = "/{fileId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamDocumentEvents(@PathVariable String fileId) {
+        FileMetadata metadata;
+        try {
+            metadata = uploadService.getFileMetadata(fileId);
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            DocumentStatusChangedEvent current = new DocumentStatusChangedEvent(fileId, null, metadata.getUploadStatus());
+            return ResponseEntity.ok(eventBroadcaster.subscribe(fileId, current));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+    
     /**
      * Get file metadata
      */
@@ -103,15 +166,65 @@ public class DocumentController {
     }
     
     /**
-     * Download original file
+     * Download original file.
+     * Supports a single HTTP Range (mapped to a MinIO ranged GET), ETag / If-None-Match
+     * on the stored checksum and, with ?redirect=true or documents.download.redirect=true,
+     * a 302 to a short-lived presigned MinIO URL so the bytes skip the orchestrator.
      */
     @GetMapping("/{fileId}/download")
-    public ResponseEntity<InputStreamResource> downloadFile(@PathVariable String fileId) {
+    public ResponseEntity<InputStreamResource> downloadFile(
+            @PathVariable String fileId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestParam(required = false) Boolean redirect) {
+        FileMetadata metadata;
         try {
-            FileMetadata metadata = uploadService.getFileMetadata(fileId);
-            InputStream inputStream = uploadService.downloadFile(fileId);
+            metadata = uploadService.getFileMetadata(fileId);
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        try {
+            String etag = metadata.getChecksum() != null ? "\"" + metadata.getChecksum() + "\"" : null;
+            if (etag != null && matchesETag(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+            
+            if (redirect != null ? redirect : downloadRedirect) {
+                String url = uploadService.getDownloadUrl(metadata, presignedExpirySeconds);
+                return ResponseEntity.status(HttpStatus.FOUND)
+                        .location(URI.create(url))
+                        .build();
+            }
+            
+            long size = metadata.getFileSize();
+            ResponseEntity.BodyBuilder builder;
+            InputStream inputStream;
+            
+            List<HttpRange> ranges = rangeHeader != null && (ifRange == null || ifRange.equals(etag))
+                    ? HttpRange.parseRanges(rangeHeader)
+                    : List.of();
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                long start = range.getRangeStart(size);
+                long end = range.getRangeEnd(size);
+                long length = end - start + 1;
+                inputStream = uploadService.downloadFile(metadata, start, length);
+                builder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                        .contentLength(length);
+            } else {
+                // No range, If-Range mismatch or multiple ranges: whole file
+                inputStream = uploadService.downloadFile(fileId);
+                builder = ResponseEntity.ok().contentLength(size);
+            }
             
-            return ResponseEntity.ok()
+            if (etag != null) {
+                builder.eTag(etag);
+            }
+            return builder
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                     .header(HttpHeaders.CONTENT_DISPOSITION, 
                             "attachment; filename=\"" + metadata.getOriginalFilename() + "\"")
                     .contentType(MediaType.parseMediaType(
@@ -119,6 +232,11 @@ public class DocumentController {
                             metadata.getContentType() : "application/octet-stream"))
                     .body(new InputStreamResource(inputStream));
                     
+        } catch (IllegalArgumentException e) {
+            // Malformed or unsatisfiable range
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + metadata.getFileSize())
+                    .build();
         } catch (Exception e) {
             log.error("❌ Error downloading file: {}", fileId, e);
             return ResponseEntity.notFound().build();
@@ -126,27 +244,91 @@ public class DocumentController {
     }
     
     /**
-     * Download extracted text (transcription)
+     * Download extracted text (transcription).
+     * Streams the plain-text object written by the extraction-service, with a single
+     * HTTP Range; a gzip-stored transcription is sent as-is (Content-Encoding: gzip) when
+     * the client accepts gzip, otherwise it is decompressed on the fly (no ranges).
+     * Documents extracted before the plain-text object existed fall back to extracted-text.json.
      */
     @GetMapping("/{fileId}/download-text")
-    public ResponseEntity<InputStreamResource> downloadExtractedText(@PathVariable String fileId) {
+    public ResponseEntity<InputStreamResource> downloadExtractedText(
+            @PathVariable String fileId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        FileMetadata metadata;
         try {
-            FileMetadata metadata = uploadService.getFileMetadata(fileId);
+            metadata = uploadService.getFileMetadata(fileId);
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        if (metadata.getMinioPathText() == null && metadata.getMinioPathExtracted() == null) {
+            log.warn("⚠️ No extracted text available for file: {}", fileId);
+            return ResponseEntity.notFound().build();
+        }
+        
+        long size = 0;
+        try {
+            String filename = metadata.getOriginalFilename().replaceFirst("[.][^.]+$", "") + "_transcription.txt";
+            MediaType textPlain = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
             
-            if (metadata.getMinioPathExtracted() == null) {
-                log.warn("⚠️ No extracted text available for file: {}", fileId);
-                return ResponseEntity.notFound().build();
+            if (metadata.getMinioPathText() == null) {
+                byte[] text = uploadService.readLegacyExtractedText(metadata);
+                return ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_DISPOSITION, 
+                                "attachment; filename=\"" + filename + "\"")
+                        .contentType(textPlain)
+                        .contentLength(text.length)
+                        .body(new InputStreamResource(new ByteArrayInputStream(text)));
             }
             
-            InputStream inputStream = uploadService.downloadExtractedText(fileId);
-            String filename = metadata.getOriginalFilename().replaceFirst("[.][^.]+$", "") + "_transcription.txt";
+            boolean gzipStored = "gzip".equals(metadata.getExtractedTextEncoding());
+            ResponseEntity.BodyBuilder builder;
+            InputStream inputStream;
+            
+            if (gzipStored && !acceptsGzip(acceptEncoding)) {
+                inputStream = new GZIPInputStream(uploadService.downloadExtractedText(metadata));
+                builder = ResponseEntity.ok().header(HttpHeaders.ACCEPT_RANGES, "none");
+                if (metadata.getExtractedTextLength() != null) {
+                    builder.contentLength(metadata.getExtractedTextLength());
+                }
+            } else {
+                // Ranges apply to the stored representation (gzip bytes when Content-Encoding is gzip)
+                size = gzipStored || metadata.getExtractedTextLength() == null
+                        ? uploadService.getExtractedTextStoredSize(metadata)
+                        : metadata.getExtractedTextLength();
+                List<HttpRange> ranges = rangeHeader != null ? HttpRange.parseRanges(rangeHeader) : List.of();
+                if (ranges.size() == 1) {
+                    HttpRange range = ranges.get(0);
+                    long start = range.getRangeStart(size);
+                    long end = range.getRangeEnd(size);
+                    long length = end - start + 1;
+                    inputStream = uploadService.downloadExtractedText(metadata, start, length);
+                    builder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                            .contentLength(length);
+                } else {
+                    inputStream = uploadService.downloadExtractedText(metadata);
+                    builder = ResponseEntity.ok().contentLength(size);
+                }
+                builder.header(HttpHeaders.ACCEPT_RANGES, "bytes");
+                if (gzipStored) {
+                    builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+                }
+            }
             
-            return ResponseEntity.ok()
+            return builder
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
                     .header(HttpHeaders.CONTENT_DISPOSITION, 
                             "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.TEXT_PLAIN)
+                    .contentType(textPlain)
                     .body(new InputStreamResource(inputStream));
                     
+        } catch (IllegalArgumentException e) {
+            // Malformed or unsatisfiable range
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
         } catch (Exception e) {
             log.error("❌ Error downloading extracted text: {}", fileId, e);
             return ResponseEntity.notFound().build();
@@ -154,19 +336,73 @@ public class DocumentController {
     }
     
     /**
-     * List all documents
+     * true se Accept-Encoding ammette gzip (esplicito o *, con q diverso da 0)
+     */
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim().replace(" ", "");
+                if (param.matches("q=0(\\.0*)?")) {
+                    rejected = true;
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * true se If-None-Match contiene l'ETag (anche debole, W/"...") o *
+     */
+    private boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * List documents (keyset pagination on uploadedAt, id)
      */
     @GetMapping
-    public ResponseEntity<List<FileMetadata>> listDocuments(
-            @RequestParam(required = false) String status) {
+    public ResponseEntity<DocumentPage> listDocuments(
+            @RequestParam(required = false) List<String> status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "desc") String sort,
+            @RequestParam(defaultValue = "50") int limit) {
         try {
-            List<FileMetadata> documents;
-            if (status != null) {
-                documents = repository.findByUploadStatus(status);
-            } else {
-                documents = repository.findAll();
+            DocumentCursor after = cursor != null && !cursor.isBlank() ? DocumentCursor.decode(cursor) : null;
+            int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+            boolean ascending = "asc".equalsIgnoreCase(sort);
+            
+            // One extra row tells whether there is a next page
+            List<DocumentSummary> items = repository.findSummaries(status, after, ascending, pageSize + 1);
+            String nextCursor = null;
+            if (items.size() > pageSize) {
+                items = items.subList(0, pageSize);
+                nextCursor = DocumentCursor.of(items.get(pageSize - 1)).encode();
             }
-            return ResponseEntity.ok(documents);
+            return ResponseEntity.ok(new DocumentPage(items, nextCursor));
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Invalid document list request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             log.error("❌ Error listing documents", e);
             return ResponseEntity.internalServerError().build();
@@ -174,19 +410,12 @@ public class DocumentController {
     }
     
     /**
-     * Get statistics
+     * Get statistics (in-memory counters, see StatusCounterStore)
      */
     @GetMapping("/stats")
     public ResponseEntity<Map<String, Object>> getStatistics() {
         try {
-            Map<String, Object> stats = new HashMap<>();
-            stats.put("total", repository.count());
-            stats.put("uploaded", repository.countByUploadStatus("UPLOADED"));
-            stats.put("extracted", repository.countByUploadStatus("EXTRACTED"));
-            stats.put("indexed", repository.countByUploadStatus("INDEXED"));
-            stats.put("failed", repository.countByUploadStatus("FAILED"));
-            
-            return ResponseEntity.ok(stats);
+            return ResponseEntity.ok(statusCounters.snapshot());
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -201,7 +430,8 @@ public class DocumentController {
             FileMetadata metadata = uploadService.getFileMetadata(fileId);
             
             // 1. Delete from MinIO (original file + extracted text)
-            uploadService.deleteFromMinIO(fileId, metadata.getMinioPathOriginal(), metadata.getMinioPathExtracted());
+            uploadService.deleteFromMinIO(fileId, metadata.getMinioPathOriginal(), metadata.getMinioPathExtracted(),
+                    metadata.getMinioPathText());
             
             // 2. Delete from Elasticsearch
             try {
@@ -212,7 +442,7 @@ public class DocumentController {
             }
             
             // 3. Delete from DB
-            repository.deleteById(fileId);
+            uploadService.deleteMetadata(metadata);
             
             Map<String, Object> response = Map.of(
                 "message", "Document deleted completely",
@@ -237,7 +467,7 @@ public class DocumentController {
     public ResponseEntity<Map<String, Object>> deleteFailedDocuments() {
         try {
             List<FileMetadata> failed = repository.findByUploadStatus("FAILED");
-            failed.forEach(repository::delete);
+            failed.forEach(uploadService::deleteMetadata);
             Map<String, Object> response = new HashMap<>();
             response.put("message", "Failed documents deleted");
             response.put("count", failed.size());
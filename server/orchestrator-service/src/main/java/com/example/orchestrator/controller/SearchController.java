@@ -1,14 +1,21 @@
 package com.example.orchestrator.controller;
 
 import com.example.orchestrator.client.IndexingServiceClient;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Ricerca con search.proxy.pass-through=false: la risposta di indexing-service viene
+ * deserializzata e riserializzata. Con il pass-through (default) gli stessi endpoint
+ * sono serviti da SearchProxyController.
+ */
 @RestController
 @RequestMapping("/api/search")
+@ConditionalOnProperty(name = "search.proxy.pass-through", havingValue = "false")
 public class SearchController {
 
     private final IndexingServiceClient indexingServiceClient;
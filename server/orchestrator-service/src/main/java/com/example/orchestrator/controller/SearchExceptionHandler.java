@@ -0,0 +1,27 @@
+package com.example.orchestrator.controller;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+/**
+ * Errori comuni a SearchController e SearchProxyController
+ */
+@RestControllerAdvice(assignableTypes = {SearchController.class, SearchProxyController.class})
+public class SearchExceptionHandler {
+
+    /**
+     * indexing-service unavailable (circuit open) or too many concurrent calls
+     */
+    @ExceptionHandler({CallNotPermittedException.class, BulkheadFullException.class})
+    public ResponseEntity<Map<String, String>> handleUnavailable(RuntimeException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .body(Map.of("error", "Search temporarily unavailable: " + e.getMessage()));
+    }
+}
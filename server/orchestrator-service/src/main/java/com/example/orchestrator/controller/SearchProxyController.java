@@ -0,0 +1,61 @@
+package com.example.orchestrator.controller;
+
+import com.example.orchestrator.client.IndexingServiceClient;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Ricerca con search.proxy.pass-through=true (default): la risposta upstream viene
+ * copiata in streaming su HttpServletResponse senza essere deserializzata, quindi gli
+ * handler non restituiscono nulla. Validazione dei parametri e autenticazione restano qui.
+ */
+@RestController
+@RequestMapping("/api/search")
+@ConditionalOnProperty(name = "search.proxy.pass-through", havingValue = "true", matchIfMissing = true)
+public class SearchProxyController {
+
+    private final IndexingServiceClient indexingServiceClient;
+
+    public SearchProxyController(IndexingServiceClient indexingServiceClient) {
+        this.indexingServiceClient = indexingServiceClient;
+    }
+
+    /**
+     * GET /api/search?q=query&maxResults=10
+     */
+    @GetMapping
+    public void search(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") Integer maxResults,
+            HttpServletResponse response) {
+        indexingServiceClient.proxySearch(q, maxResults, response);
+    }
+
+    /**
+     * POST /api/search/query
+     * Body: {"question": "query", "maxResults": 10}
+     */
+    @PostMapping("/query")
+    public void searchPost(@RequestBody Map<String, Object> request, HttpServletResponse response) {
+        indexingServiceClient.proxySearchPost(request, response);
+    }
+
+    /**
+     * GET /api/search/raw?q=query
+     */
+    @GetMapping("/raw")
+    public void searchRaw(@RequestParam String q, HttpServletResponse response) {
+        indexingServiceClient.proxySearchRaw(q, response);
+    }
+
+    /**
+     * GET /api/search/files
+     */
+    @GetMapping("/files")
+    public void getIndexedFiles(HttpServletResponse response) {
+        indexingServiceClient.proxyIndexedFiles(response);
+    }
+}
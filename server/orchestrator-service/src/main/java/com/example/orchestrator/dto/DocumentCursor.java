@@ -0,0 +1,40 @@
+package com.example.orchestrator.dto;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Cursore keyset (uploadedAt, id) della lista documenti,
+ * serializzato come stringa base64url opaca per il client.
+ */
+@Value
+public class DocumentCursor {
+
+    LocalDateTime uploadedAt;
+    String id;
+
+    public static DocumentCursor of(DocumentSummary last) {
+        return new DocumentCursor(last.getUploadedAt(), last.getId());
+    }
+
+    public String encode() {
+        String raw = uploadedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException se il cursore non e' valido
+     */
+    public static DocumentCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            return new DocumentCursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.orchestrator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Pagina della lista documenti. nextCursor e' null sull'ultima pagina.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentPage {
+    private List<DocumentSummary> items;
+    private String nextCursor;
+}
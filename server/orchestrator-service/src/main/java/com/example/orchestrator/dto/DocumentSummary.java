@@ -0,0 +1,27 @@
+package com.example.orchestrator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proiezione leggera di FileMetadata per la lista documenti
+ * (senza le colonne TEXT: extractedMetadata, extractionError, indexingError)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentSummary {
+    private String id;
+    private String originalFilename;
+    private Long fileSize;
+    private String contentType;
+    private String uploadStatus;
+    private String extractionStatus;
+    private String indexingStatus;
+    private LocalDateTime uploadedAt;
+    private LocalDateTime extractionCompletedAt;
+    private LocalDateTime indexingCompletedAt;
+}
@@ -41,6 +41,14 @@ public class FileMetadata {
     @Column(length = 500)
     private String minioPathExtracted;
     
+    @Column(length = 500)
+    private String minioPathText; // plain-text transcription
+    
+    private Long extractedTextLength; // UTF-8 bytes, uncompressed
+    
+    @Column(length = 20)
+    private String extractedTextEncoding; // identity, gzip
+    
     // Status Tracking
     @Column(nullable = false, length = 50)
     private String uploadStatus; // UPLOADED, EXTRACTING, EXTRACTED, INDEXING, INDEXED, FAILED
@@ -60,6 +68,10 @@ public class FileMetadata {
     private LocalDateTime indexingStartedAt;
     private LocalDateTime indexingCompletedAt;
     
+    // Presa in carico dal worker (StageStartedMessage), NULL finche' la richiesta e' in coda
+    private LocalDateTime extractionPickedUpAt;
+    private LocalDateTime indexingPickedUpAt;
+    
     // Metadata from Tika (JSON)
     @Column(columnDefinition = "TEXT")
     private String extractedMetadata;
@@ -74,6 +86,9 @@ public class FileMetadata {
     @Column(columnDefinition = "INT DEFAULT 0")
     private Integer retryCount = 0;
     
+    // Priority of the pipeline messages (0-rabbitmq.max-priority, higher first)
+    private Integer priority;
+    
     // System Fields
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
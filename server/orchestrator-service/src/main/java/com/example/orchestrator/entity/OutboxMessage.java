@@ -0,0 +1,79 @@
+package com.example.orchestrator.entity;
+
+import com.example.messaging.dto.ExtractionRequestMessage;
+import com.example.messaging.dto.IndexingRequestMessage;
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Messaggio in uscita verso RabbitMQ, scritto nella stessa transazione
+ * della modifica di FileMetadata e pubblicato in seguito da OutboxRelayService.
+ */
+@Data
+@Entity
+@Table(name = "outbox_message", indexes = {
+    @Index(name = "idx_outbox_available_at", columnList = "availableAt")
+})
+public class OutboxMessage {
+
+    /**
+     * Id logici del payloadType: restano validi se i DTO cambiano nome o package
+     */
+    public static final Map<String, Class<?>> PAYLOAD_TYPES = Map.of(
+            "extractionRequest", ExtractionRequestMessage.class,
+            "indexingRequest", IndexingRequestMessage.class);
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 36)
+    private String aggregateId; // fileId
+
+    // Destination
+    @Column(nullable = false)
+    private String exchange;
+
+    @Column(nullable = false)
+    private String routingKey;
+
+    // Payload (JSON of the message DTO, type id from PAYLOAD_TYPES)
+    @Column(nullable = false, length = 200)
+    private String payloadType;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    private Integer priority; // AMQP message priority (null = none)
+
+    // Delivery Tracking
+    @Column(columnDefinition = "INT DEFAULT 0")
+    private Integer attempts = 0;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private LocalDateTime availableAt; // not relayed before this instant (retry backoff)
+
+    public static String payloadTypeOf(Class<?> type) {
+        return PAYLOAD_TYPES.entrySet().stream()
+                .filter(entry -> entry.getValue().equals(type))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No outbox payload type for " + type.getName()));
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (availableAt == null) {
+            availableAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.orchestrator.event;
+
+import lombok.Value;
+
+/**
+ * Cambio di uploadStatus di un documento.
+ * fromStatus e' null per un nuovo upload, toStatus e' null per una cancellazione.
+ */
+@Value
+public class DocumentStatusChangedEvent {
+    String fileId;
+    String fromStatus;
+    String toStatus;
+}
@@ -1,14 +1,19 @@
 package com.example.orchestrator.repository;
 
 import com.example.orchestrator.entity.FileMetadata;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface FileMetadataRepository extends JpaRepository<FileMetadata, String> {
+public interface FileMetadataRepository extends JpaRepository<FileMetadata, String>, FileMetadataRepositoryCustom {
     
     List<FileMetadata> findByUploadStatus(String uploadStatus);
     
@@ -18,7 +23,176 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Stri
     
     Optional<FileMetadata> findByChecksum(String checksum);
     
+    boolean existsByChecksum(String checksum);
+    
     List<FileMetadata> findByOriginalFilenameContaining(String filename);
     
     long countByUploadStatus(String uploadStatus);
+    
+    /**
+     * Numero di documenti per uploadStatus: righe [uploadStatus, count]
+     */
+    @Query("SELECT f.uploadStatus, COUNT(f) FROM FileMetadata f GROUP BY f.uploadStatus")
+    List<Object[]> countGroupByUploadStatus();
+    
+    /**
+     * Documenti fermi in estrazione/indicizzazione con retryCount tra minRetries e maxRetries
+     * (vedi StuckJobReaper): presi in carico da un worker prima di pickedUpCutoff, oppure
+     * mai presi in carico e accodati prima di queuedCutoff. Il cutoff dipende dal numero di
+     * tentativi, per questo il reaper interroga un livello di retry alla volta.
+     */
+    @Query("SELECT f FROM FileMetadata f WHERE f.uploadStatus = 'UPLOADED' " +
+           "AND COALESCE(f.retryCount, 0) BETWEEN :minRetries AND :maxRetries " +
+           "AND (f.extractionPickedUpAt < :pickedUpCutoff " +
+           "OR (f.extractionPickedUpAt IS NULL AND f.extractionStartedAt < :queuedCutoff)) " +
+           "ORDER BY COALESCE(f.extractionPickedUpAt, f.extractionStartedAt)")
+    List<FileMetadata> findStuckExtractions(@Param("minRetries") int minRetries,
+                                            @Param("maxRetries") int maxRetries,
+                                            @Param("pickedUpCutoff") LocalDateTime pickedUpCutoff,
+                                            @Param("queuedCutoff") LocalDateTime queuedCutoff,
+                                            Pageable pageable);
+    
+    @Query("SELECT f FROM FileMetadata f WHERE f.uploadStatus = 'EXTRACTED' " +
+           "AND COALESCE(f.retryCount, 0) BETWEEN :minRetries AND :maxRetries " +
+           "AND (f.indexingPickedUpAt < :pickedUpCutoff " +
+           "OR (f.indexingPickedUpAt IS NULL AND f.indexingStartedAt < :queuedCutoff)) " +
+           "ORDER BY COALESCE(f.indexingPickedUpAt, f.indexingStartedAt)")
+    List<FileMetadata> findStuckIndexing(@Param("minRetries") int minRetries,
+                                         @Param("maxRetries") int maxRetries,
+                                         @Param("pickedUpCutoff") LocalDateTime pickedUpCutoff,
+                                         @Param("queuedCutoff") LocalDateTime queuedCutoff,
+                                         Pageable pageable);
+    
+    // ========================================
+    // Stage pickup (see StageStartedConsumer): a worker started the
+    // stage. Ignored once the document has moved past it.
+    // ========================================
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.extractionPickedUpAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = 'UPLOADED'")
+    int markExtractionPickedUp(@Param("id") String id, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.indexingPickedUpAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus IN ('UPLOADED', 'EXTRACTED')")
+    int markIndexingPickedUp(@Param("id") String id, @Param("now") LocalDateTime now);
+    
+    // ========================================
+    // Guarded retries (see StuckJobReaper): only applied when the row is
+    // still in the expected status and the stage has not been restarted
+    // since it was read.
+    // ========================================
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.retryCount = COALESCE(f.retryCount, 0) + 1, " +
+           "f.extractionStartedAt = :now, f.extractionPickedUpAt = NULL, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus AND f.extractionStartedAt = :startedAt " +
+           "AND COALESCE(f.extractionPickedUpAt, f.extractionStartedAt) = :lastActivity")
+    int markExtractionRetried(@Param("id") String id,
+                              @Param("expectedStatus") String expectedStatus,
+                              @Param("startedAt") LocalDateTime startedAt,
+                              @Param("lastActivity") LocalDateTime lastActivity,
+                              @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.retryCount = COALESCE(f.retryCount, 0) + 1, " +
+           "f.indexingStartedAt = :now, f.indexingPickedUpAt = NULL, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus AND f.indexingStartedAt = :startedAt " +
+           "AND COALESCE(f.indexingPickedUpAt, f.indexingStartedAt) = :lastActivity")
+    int markIndexingRetried(@Param("id") String id,
+                            @Param("expectedStatus") String expectedStatus,
+                            @Param("startedAt") LocalDateTime startedAt,
+                            @Param("lastActivity") LocalDateTime lastActivity,
+                            @Param("now") LocalDateTime now);
+    
+    // ========================================
+    // Replay from the dead-letter queue (see DeadLetterReplayService):
+    // a FAILED document goes back to the stage that failed, with a
+    // fresh retry budget.
+    // ========================================
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'UPLOADED', f.extractionStatus = 'PENDING', " +
+           "f.extractionError = NULL, f.extractionStartedAt = :now, f.extractionCompletedAt = NULL, " +
+           "f.extractionPickedUpAt = NULL, f.indexingPickedUpAt = NULL, " +
+           "f.retryCount = 0, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus AND f.extractionStatus = 'FAILED'")
+    int reopenExtraction(@Param("id") String id,
+                         @Param("expectedStatus") String expectedStatus,
+                         @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'EXTRACTED', f.indexingStatus = 'PENDING', " +
+           "f.indexingError = NULL, f.indexingStartedAt = :now, f.indexingCompletedAt = NULL, " +
+           "f.indexingPickedUpAt = NULL, " +
+           "f.retryCount = 0, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus AND f.indexingStatus = 'FAILED' " +
+           "AND f.extractionStatus = 'COMPLETED'")
+    int reopenIndexing(@Param("id") String id,
+                       @Param("expectedStatus") String expectedStatus,
+                       @Param("now") LocalDateTime now);
+    
+    // ========================================
+    // Guarded status transitions (see FileStatusStateMachine).
+    // Each one is a single UPDATE that only applies when the row is
+    // still in the expected uploadStatus; the return value is the
+    // number of updated rows (0 = duplicate or out-of-order event).
+    // ========================================
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'EXTRACTED', f.extractionStatus = 'COMPLETED', " +
+           "f.extractionCompletedAt = :now, f.minioPathExtracted = :extractedPath, " +
+           "f.minioPathText = :textPath, f.extractedTextLength = :textLength, f.extractedTextEncoding = :textEncoding, " +
+           "f.indexingStatus = 'PENDING', f.indexingStartedAt = :now, f.retryCount = 0, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus")
+    int markExtractionCompleted(@Param("id") String id,
+                                @Param("expectedStatus") String expectedStatus,
+                                @Param("extractedPath") String extractedPath,
+                                @Param("textPath") String textPath,
+                                @Param("textLength") Long textLength,
+                                @Param("textEncoding") String textEncoding,
+                                @Param("now") LocalDateTime now);
+    
+    /**
+     * Dati di un'estrazione completata dopo l'indicizzazione (choreography): lo stato non cambia
+     */
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.extractionStatus = 'COMPLETED', f.extractionCompletedAt = :now, " +
+           "f.minioPathExtracted = :extractedPath, f.minioPathText = :textPath, " +
+           "f.extractedTextLength = :textLength, f.extractedTextEncoding = :textEncoding, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus AND f.extractionStatus <> 'COMPLETED'")
+    int recordExtractionDetails(@Param("id") String id,
+                                @Param("expectedStatus") String expectedStatus,
+                                @Param("extractedPath") String extractedPath,
+                                @Param("textPath") String textPath,
+                                @Param("textLength") Long textLength,
+                                @Param("textEncoding") String textEncoding,
+                                @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'FAILED', f.extractionStatus = 'FAILED', " +
+           "f.extractionError = :error, f.extractionCompletedAt = :now, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus")
+    int markExtractionFailed(@Param("id") String id,
+                             @Param("expectedStatus") String expectedStatus,
+                             @Param("error") String error,
+                             @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'INDEXED', f.indexingStatus = 'COMPLETED', " +
+           "f.indexingCompletedAt = :now, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus")
+    int markIndexingCompleted(@Param("id") String id,
+                              @Param("expectedStatus") String expectedStatus,
+                              @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE FileMetadata f SET f.uploadStatus = 'FAILED', f.indexingStatus = 'FAILED', " +
+           "f.indexingError = :error, f.indexingCompletedAt = :now, f.updatedAt = :now " +
+           "WHERE f.id = :id AND f.uploadStatus = :expectedStatus")
+    int markIndexingFailed(@Param("id") String id,
+                           @Param("expectedStatus") String expectedStatus,
+                           @Param("error") String error,
+                           @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,21 @@
+package com.example.orchestrator.repository;
+
+import com.example.orchestrator.dto.DocumentCursor;
+import com.example.orchestrator.dto.DocumentSummary;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface FileMetadataRepositoryCustom {
+
+    /**
+     * Lista documenti paginata con keyset su (uploadedAt, id)
+     *
+     * @param statuses  filtro su uploadStatus (null o vuoto = tutti)
+     * @param after     ultimo elemento della pagina precedente (null = prima pagina)
+     * @param ascending ordinamento per uploadedAt
+     * @param limit     dimensione massima della pagina
+     */
+    List<DocumentSummary> findSummaries(Collection<String> statuses, DocumentCursor after,
+                                        boolean ascending, int limit);
+}
@@ -0,0 +1,59 @@
+package com.example.orchestrator.repository;
+
+import com.example.orchestrator.dto.DocumentCursor;
+import com.example.orchestrator.dto.DocumentSummary;
+import com.example.orchestrator.entity.FileMetadata;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class FileMetadataRepositoryCustomImpl implements FileMetadataRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<DocumentSummary> findSummaries(Collection<String> statuses, DocumentCursor after,
+                                               boolean ascending, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DocumentSummary> query = cb.createQuery(DocumentSummary.class);
+        Root<FileMetadata> f = query.from(FileMetadata.class);
+        Path<LocalDateTime> uploadedAt = f.get("uploadedAt");
+        Path<String> id = f.get("id");
+
+        query.select(cb.construct(DocumentSummary.class,
+                id, f.get("originalFilename"), f.get("fileSize"), f.get("contentType"),
+                f.get("uploadStatus"), f.get("extractionStatus"), f.get("indexingStatus"),
+                uploadedAt, f.get("extractionCompletedAt"), f.get("indexingCompletedAt")));
+
+        List<Predicate> where = new ArrayList<>();
+        if (statuses != null && !statuses.isEmpty()) {
+            where.add(f.get("uploadStatus").in(statuses));
+        }
+        if (after != null) {
+            // (uploadedAt, id) > (:uploadedAt, :id), or < when descending
+            where.add(ascending
+                    ? cb.or(cb.greaterThan(uploadedAt, after.getUploadedAt()),
+                            cb.and(cb.equal(uploadedAt, after.getUploadedAt()), cb.greaterThan(id, after.getId())))
+                    : cb.or(cb.lessThan(uploadedAt, after.getUploadedAt()),
+                            cb.and(cb.equal(uploadedAt, after.getUploadedAt()), cb.lessThan(id, after.getId()))));
+        }
+        query.where(where.toArray(new Predicate[0]));
+        query.orderBy(ascending
+                ? List.of(cb.asc(uploadedAt), cb.asc(id))
+                : List.of(cb.desc(uploadedAt), cb.desc(id)));
+
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.orchestrator.repository;
+
+import com.example.orchestrator.entity.OutboxMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+
+    List<OutboxMessage> findByAvailableAtLessThanEqualOrderByIdAsc(LocalDateTime now, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxMessage o SET o.payloadType = :typeId WHERE o.payloadType LIKE :className")
+    int renamePayloadType(@Param("className") String className, @Param("typeId") String typeId);
+}
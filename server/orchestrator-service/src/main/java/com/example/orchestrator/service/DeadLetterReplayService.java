@@ -0,0 +1,239 @@
+package com.example.orchestrator.service;
+
+import com.example.messaging.amqp.ExtractionLanes;
+import com.example.messaging.amqp.MessageConverters;
+import com.example.orchestrator.entity.FileMetadata;
+import com.example.orchestrator.repository.FileMetadataRepository;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rimette in circolo i messaggi della dead-letter queue (scaduti per TTL, rifiutati o
+ * spostati dal StuckJobReaper) a velocita' controllata, cosi' un backlog di migliaia di
+ * richieste non satura di nuovo extraction-service e indexing-service.
+ * Ogni messaggio torna sull'exchange principale con la routing key della sua coda (un
+ * messaggio rimandato dall'admission control arriva con il nome della coda come routing
+ * key e viene ricondotto a {extraction-request}.{lane}); se il
+ * documento e' FAILED viene riaperto sulla fase fallita (vedi FileStatusStateMachine),
+ * se e' stato cancellato o ha gia' superato quella fase il messaggio viene scartato.
+ * Un solo replay alla volta, in background.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeadLetterReplayService {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final FileMetadataRepository repository;
+    private final FileStatusStateMachine stateMachine;
+    private final StatusWriteBehindBuffer writeBehind;
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dead-letter-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger replayed = new AtomicInteger();
+    private final AtomicInteger discarded = new AtomicInteger();
+    private volatile boolean stopRequested;
+
+    @Value("${rabbitmq.exchange.name}")
+    private String exchangeName;
+
+    @Value("${rabbitmq.queue.dead-letter}")
+    private String deadLetterQueue;
+
+    @Value("${rabbitmq.queue.extraction-requests}")
+    private String extractionRequestsQueue;
+
+    @Value("${rabbitmq.queue.indexing-requests}")
+    private String indexingRequestsQueue;
+
+    @Value("${rabbitmq.routing-key.extraction-request}")
+    private String extractionRequestKey;
+
+    @Value("${rabbitmq.routing-key.indexing-request}")
+    private String indexingRequestKey;
+
+    @Value("${dead-letter.replay.rate:10}")
+    private double defaultRate;
+
+    @Value("${dead-letter.replay.max-messages:1000}")
+    private int defaultMaxMessages;
+
+    /**
+     * Avvia il replay in background
+     *
+     * @param maxMessages messaggi da prelevare al massimo (null = dead-letter.replay.max-messages)
+     * @param rate        messaggi al secondo (null = dead-letter.replay.rate)
+     * @return false se un replay e' gia' in corso
+     */
+    public boolean start(Integer maxMessages, Double rate) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        int limit = maxMessages != null ? maxMessages : defaultMaxMessages;
+        double perSecond = rate != null && rate > 0 ? rate : defaultRate;
+        replayed.set(0);
+        discarded.set(0);
+        stopRequested = false;
+        executor.execute(() -> {
+            try {
+                replay(limit, perSecond);
+            } catch (Exception e) {
+                log.error("❌ Dead-letter replay interrupted", e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        QueueInformation info = amqpAdmin.getQueueInfo(deadLetterQueue);
+        status.put("queue", deadLetterQueue);
+        status.put("messages", info != null ? info.getMessageCount() : null);
+        status.put("running", running.get());
+        status.put("replayed", replayed.get());
+        status.put("discarded", discarded.get());
+        return status;
+    }
+
+    private void replay(int limit, double perSecond) throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        log.info("♻️ Replaying up to {} dead-lettered messages at {}/s", limit, perSecond);
+        while (!stopRequested && replayed.get() + discarded.get() < limit) {
+            long start = System.nanoTime();
+            Boolean found = rabbitTemplate.execute(this::replayOne);
+            if (!Boolean.TRUE.equals(found)) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.sleep(intervalNanos - (System.nanoTime() - start));
+        }
+        log.info("✅ Dead-letter replay finished: {} replayed, {} discarded", replayed.get(), discarded.get());
+    }
+
+    /**
+     * Preleva un messaggio, lo ripubblica e solo dopo lo conferma: un'interruzione
+     * a meta' al piu' lo duplica (i consumer sono idempotenti)
+     *
+     * @return false se la coda e' vuota
+     */
+    private Boolean replayOne(Channel channel) throws IOException {
+        GetResponse response = channel.basicGet(deadLetterQueue, false);
+        if (response == null) {
+            return false;
+        }
+        long deliveryTag = response.getEnvelope().getDeliveryTag();
+        String routingKey = exchangeRoutingKey(response.getEnvelope().getRoutingKey());
+        if (routingKey == null) {
+            // Nessuna coda di richiesta corrispondente: resta in coda per un'analisi manuale
+            channel.basicNack(deliveryTag, false, true);
+            log.warn("⚠️ Dead-lettered message with unknown routing key ({}), replay stopped",
+                    response.getEnvelope().getRoutingKey());
+            return false;
+        }
+        String fileId;
+        try {
+            // Il corpo puo' essere JSON o CBOR (messaging.encoding del mittente)
+            fileId = MessageConverters.mapperFor(response.getProps().getContentType())
+                    .readTree(response.getBody()).path("fileId").asText(null);
+        } catch (IOException e) {
+            // Non e' una richiesta della pipeline: resta in coda per un'analisi manuale
+            channel.basicNack(deliveryTag, false, true);
+            log.warn("⚠️ Unreadable dead-lettered message ({}), replay stopped", routingKey);
+            return false;
+        }
+        if (fileId == null || !reopen(fileId, routingKey)) {
+            channel.basicAck(deliveryTag, false);
+            discarded.incrementAndGet();
+            meterRegistry.counter("dead_letter.replay", "result", "discarded").increment();
+            log.info("🗑️ Discarded dead-lettered message for fileId: {} ({})", fileId, routingKey);
+            return true;
+        }
+        channel.basicPublish(exchangeName, routingKey, response.getProps(), response.getBody());
+        channel.basicAck(deliveryTag, false);
+        replayed.incrementAndGet();
+        meterRegistry.counter("dead_letter.replay", "result", "replayed").increment();
+        log.info("♻️ Replayed dead-lettered message for fileId: {} ({})", fileId, routingKey);
+        return true;
+    }
+
+    /**
+     * Routing key sull'exchange principale, null se non e' una richiesta della pipeline.
+     * I messaggi passati da {coda}.deferred tornano nella coda di origine tramite il default
+     * exchange, quindi un nuovo dead-lettering li porta qui con il nome della coda
+     */
+    private String exchangeRoutingKey(String routingKey) {
+        if (routingKey.equals(extractionRequestKey) || routingKey.equals(indexingRequestKey)) {
+            return routingKey;
+        }
+        if (routingKey.startsWith(extractionRequestKey + ".")
+                && ExtractionLanes.LANES.contains(routingKey.substring(extractionRequestKey.length() + 1))) {
+            return routingKey;
+        }
+        if (routingKey.equals(extractionRequestsQueue)) {
+            return extractionRequestKey;
+        }
+        if (routingKey.startsWith(extractionRequestsQueue + ".")) {
+            String lane = routingKey.substring(extractionRequestsQueue.length() + 1);
+            return ExtractionLanes.LANES.contains(lane) ? extractionRequestKey + "." + lane : null;
+        }
+        if (routingKey.equals(indexingRequestsQueue)) {
+            return indexingRequestKey;
+        }
+        return null;
+    }
+
+    /**
+     * Il messaggio va ripubblicato? Riapre il documento se la fase era FAILED
+     */
+    private boolean reopen(String fileId, String routingKey) {
+        FileMetadata metadata = repository.findById(fileId).orElse(null);
+        if (metadata == null) {
+            return false;
+        }
+        String status = writeBehind.overlay(metadata).getUploadStatus();
+        if (routingKey.equals(indexingRequestKey)) {
+            // UPLOADED: con la choreography l'indicizzazione puo' precedere extraction.completed
+            return FileStatusStateMachine.EXTRACTED.equals(status)
+                    || FileStatusStateMachine.UPLOADED.equals(status)
+                    || (FileStatusStateMachine.FAILED.equals(status) && stateMachine.indexingReopened(fileId));
+        }
+        // {extraction-request}[.{lane}] (vedi exchangeRoutingKey)
+        return FileStatusStateMachine.UPLOADED.equals(status)
+                || (FileStatusStateMachine.FAILED.equals(status) && stateMachine.extractionReopened(fileId));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopRequested = true;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.event.DocumentStatusChangedEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invia i cambi di stato dei documenti ai client SSE.
+ * Ogni sottoscrittore (firehose o singolo fileId) ha un buffer limitato:
+ * se il client e' lento gli eventi piu' vecchi vengono scartati,
+ * cosi' un client lento non blocca i consumer RabbitMQ ne' gli altri client.
+ */
+@Slf4j
+@Component
+public class DocumentEventBroadcaster {
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "sse-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Value("${events.sse.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${events.sse.max-subscribers:1000}")
+    private int maxSubscribers;
+
+    @Value("${events.sse.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    /**
+     * Registra un sottoscrittore
+     *
+     * @param fileId  documento da seguire, null per tutti i documenti
+     * @param initial evento inviato subito (es. stato corrente del documento), puo' essere null
+     * @throws IllegalStateException se e' stato raggiunto il numero massimo di sottoscrittori
+     */
+    public SseEmitter subscribe(String fileId, DocumentStatusChangedEvent initial) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Too many event subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(fileId, emitter);
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        if (initial != null) {
+            subscriber.offer(toSse(initial));
+        }
+        log.debug("📡 New SSE subscriber (fileId: {}), total: {}", fileId != null ? fileId : "*", subscribers.size());
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DocumentStatusChangedEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        SseEmitter.SseEventBuilder sse = toSse(event);
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.fileId == null || subscriber.fileId.equals(event.getFileId())) {
+                subscriber.offer(sse);
+            }
+        }
+    }
+
+    /**
+     * Heartbeat: tiene aperte le connessioni attraverso i proxy e rileva i client disconnessi
+     */
+    @Scheduled(fixedDelayString = "${events.sse.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(s -> s.emitter.complete());
+        sender.shutdownNow();
+    }
+
+    private SseEmitter.SseEventBuilder toSse(DocumentStatusChangedEvent event) {
+        return SseEmitter.event()
+                .id(String.valueOf(sequence.incrementAndGet()))
+                .name("status")
+                .data(event);
+    }
+
+    private class Subscriber {
+        private final String fileId;
+        private final SseEmitter emitter;
+        private final Deque<SseEmitter.SseEventBuilder> buffer = new ArrayDeque<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private long dropped;
+
+        Subscriber(String fileId, SseEmitter emitter) {
+            this.fileId = fileId;
+            this.emitter = emitter;
+        }
+
+        void offer(SseEmitter.SseEventBuilder event) {
+            synchronized (buffer) {
+                if (buffer.size() >= bufferSize) {
+                    buffer.pollFirst(); // drop oldest
+                    dropped++;
+                }
+                buffer.addLast(event);
+            }
+            if (draining.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    SseEmitter.SseEventBuilder next;
+                    synchronized (buffer) {
+                        next = buffer.pollFirst();
+                        if (next == null) {
+                            draining.set(false);
+                            break;
+                        }
+                    }
+                    emitter.send(next);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client gone
+                subscribers.remove(this);
+                emitter.completeWithError(e);
+                return;
+            }
+            long droppedEvents;
+            synchronized (buffer) {
+                droppedEvents = dropped;
+                dropped = 0;
+            }
+            if (droppedEvents > 0) {
+                log.warn("⚠️ SSE subscriber (fileId: {}) too slow, dropped {} events",
+                        fileId != null ? fileId : "*", droppedEvents);
+            }
+        }
+    }
+}
@@ -1,18 +1,26 @@
 package com.example.orchestrator.service;
 
 import com.example.orchestrator.entity.FileMetadata;
+import com.example.orchestrator.event.DocumentStatusChangedEvent;
 import com.example.orchestrator.repository.FileMetadataRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Service
@@ -22,10 +30,26 @@ public class DocumentUploadService {
     private final FileMetadataRepository repository;
     private final MinioService minioService;
     private final MessagePublisherService messagePublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final StatusWriteBehindBuffer writeBehind;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final ReentrantLock[] checksumLocks = createLocks(64);
     
     @Value("${minio.bucket-name}")
     private String bucketName;
     
+    @Value("${rabbitmq.max-priority:10}")
+    private int maxPriority;
+    
+    private static ReentrantLock[] createLocks(int count) {
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+    
     @PostConstruct
     public void init() {
         // Ensure MinIO bucket exists
@@ -34,59 +58,109 @@ public class DocumentUploadService {
     
     /**
      * Upload document and trigger processing pipeline
+     *
+     * @param priority priorita' dei messaggi della pipeline (0-rabbitmq.max-priority, piu' alta prima)
+     */
+    public FileMetadata uploadDocument(MultipartFile file, int priority) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return uploadDocument(inputStream, file.getOriginalFilename(), file.getSize(), file.getContentType(), priority);
+        } catch (IOException e) {
+            log.error("❌ Error uploading document", e);
+            throw new RuntimeException("Failed to upload document", e);
+        }
+    }
+    
+    /**
+     * Upload document from a stream, read only once: the SHA-256 checksum is
+     * computed while streaming to MinIO, then used for deduplication
+     * (the object just uploaded is removed if the content already exists).
      */
-    public FileMetadata uploadDocument(MultipartFile file) {
+    public FileMetadata uploadDocument(InputStream inputStream, String originalFilename, long size, String contentType,
+                                       int priority) {
+        return uploadDocument(inputStream, originalFilename, size, contentType, priority, null);
+    }
+    
+    /**
+     * Upload document whose SHA-256 checksum is already known (file polling): the
+     * stream is not hashed again and a duplicate is detected before reaching MinIO
+     *
+     * @param checksum hex SHA-256 of the content, null to compute it while streaming
+     */
+    public FileMetadata uploadDocument(InputStream inputStream, String originalFilename, long size, String contentType,
+                                       int priority, String checksum) {
         try {
+            if (checksum != null) {
+                var existing = repository.findByChecksum(checksum);
+                if (existing.isPresent()) {
+                    log.info("⚠️ File with same checksum already exists: {}", checksum);
+                    return existing.get();
+                }
+            }
+            
             // Generate unique file ID
             String fileId = UUID.randomUUID().toString();
             
-            // Calculate checksum
-            String checksum = calculateChecksum(file.getBytes());
-            log.info("Calculated checksum: {} for file: {}", checksum, file.getOriginalFilename());
-            
-            // Check if file already exists (deduplication)
-            var existing = repository.findByChecksum(checksum);
-            if (existing.isPresent()) {
-                log.info("⚠️ File with same checksum already exists: {}", checksum);
-                return existing.get();
-            }
-            
             // Determine file extension
-            String originalFilename = file.getOriginalFilename();
             String extension = "";
             if (originalFilename != null && originalFilename.contains(".")) {
                 extension = originalFilename.substring(originalFilename.lastIndexOf("."));
             }
             
-            // Upload to MinIO
+            // Upload to MinIO, calculating the checksum on the fly if not known
             String minioPath = "files/" + fileId + "/original" + extension;
+            MessageDigest digest = checksum == null ? MessageDigest.getInstance("SHA-256") : null;
             minioService.uploadFile(
                     minioPath,
-                    file.getInputStream(),
-                    file.getSize(),
-                    file.getContentType()
+                    digest != null ? new DigestInputStream(inputStream, digest) : inputStream,
+                    size,
+                    contentType
             );
+            if (digest != null) {
+                checksum = toHex(digest.digest());
+                log.info("Calculated checksum: {} for file: {}", checksum, originalFilename);
+            }
             
-            // Save metadata to H2
-            FileMetadata metadata = new FileMetadata();
-            metadata.setId(fileId);
-            metadata.setOriginalFilename(originalFilename);
-            metadata.setFileSize(file.getSize());
-            metadata.setContentType(file.getContentType());
-            metadata.setChecksum(checksum);
-            metadata.setMinioBucket(bucketName);
-            metadata.setMinioPathOriginal(minioPath);
-            metadata.setUploadStatus("UPLOADED");
-            metadata.setExtractionStatus("PENDING");
-            metadata.setUploadedAt(LocalDateTime.now());
-            
-            repository.save(metadata);
-            log.info("✅ Saved file metadata to H2: {}", fileId);
-            
-            // Publish extraction request to RabbitMQ
-            messagePublisher.publishExtractionRequest(fileId);
-            
-            return metadata;
+            // Same content uploaded concurrently is serialized on its checksum (a lock,
+            // not a monitor: no carrier thread pinned across H2 and MinIO calls)
+            ReentrantLock lock = checksumLocks[Math.floorMod(checksum.hashCode(), checksumLocks.length)];
+            lock.lock();
+            try {
+                // Check if file already exists (deduplication)
+                var existing = repository.findByChecksum(checksum);
+                if (existing.isPresent()) {
+                    log.info("⚠️ File with same checksum already exists: {}", checksum);
+                    minioService.deleteFile(minioPath);
+                    return existing.get();
+                }
+                
+                // Save metadata to H2
+                FileMetadata metadata = new FileMetadata();
+                metadata.setId(fileId);
+                metadata.setOriginalFilename(originalFilename);
+                metadata.setFileSize(size);
+                metadata.setContentType(contentType);
+                metadata.setChecksum(checksum);
+                metadata.setMinioBucket(bucketName);
+                metadata.setMinioPathOriginal(minioPath);
+                metadata.setUploadStatus("UPLOADED");
+                metadata.setExtractionStatus("PENDING");
+                metadata.setUploadedAt(LocalDateTime.now());
+                metadata.setExtractionStartedAt(LocalDateTime.now());
+                metadata.setPriority(Math.max(0, Math.min(priority, maxPriority)));
+                
+                // Save metadata and extraction request (outbox) in the same transaction
+                transactionTemplate.executeWithoutResult(status -> {
+                    repository.save(metadata);
+                    messagePublisher.publishExtractionRequest(metadata);
+                    eventPublisher.publishEvent(new DocumentStatusChangedEvent(fileId, null, metadata.getUploadStatus()));
+                });
+                writeBehind.statusWritten(fileId, metadata.getUploadStatus());
+                log.info("✅ Saved file metadata to H2: {}", fileId);
+                
+                return metadata;
+            } finally {
+                lock.unlock();
+            }
             
         } catch (Exception e) {
             log.error("❌ Error uploading document", e);
@@ -99,6 +173,7 @@ public class DocumentUploadService {
      */
     public FileMetadata getFileMetadata(String fileId) {
         return repository.findById(fileId)
+                .map(writeBehind::overlay)
                 .orElseThrow(() -> new RuntimeException("File not found: " + fileId));
     }
     
@@ -111,40 +186,75 @@ public class DocumentUploadService {
     }
     
     /**
-     * Download extracted text
+     * Download a byte range of the original file
      */
-    public InputStream downloadExtractedText(String fileId) {
-        FileMetadata metadata = getFileMetadata(fileId);
-        if (metadata.getMinioPathExtracted() == null) {
-            throw new RuntimeException("Extracted text not available for file: " + fileId);
+    public InputStream downloadFile(FileMetadata metadata, long offset, long length) {
+        return minioService.downloadFile(metadata.getMinioPathOriginal(), offset, length);
+    }
+    
+    /**
+     * Short-lived presigned URL of the original file
+     */
+    public String getDownloadUrl(FileMetadata metadata, int expirySeconds) {
+        return minioService.getPresignedDownloadUrl(metadata.getMinioPathOriginal(), expirySeconds,
+                metadata.getOriginalFilename(), metadata.getContentType());
+    }
+    
+    /**
+     * Download the plain-text transcription as stored (gzip if extractedTextEncoding is gzip)
+     */
+    public InputStream downloadExtractedText(FileMetadata metadata) {
+        return minioService.downloadFile(metadata.getMinioPathText());
+    }
+    
+    /**
+     * Download a byte range of the stored plain-text transcription
+     */
+    public InputStream downloadExtractedText(FileMetadata metadata, long offset, long length) {
+        return minioService.downloadFile(metadata.getMinioPathText(), offset, length);
+    }
+    
+    /**
+     * Size in bytes of the stored plain-text transcription
+     */
+    public long getExtractedTextStoredSize(FileMetadata metadata) {
+        return minioService.getObjectSize(metadata.getMinioPathText());
+    }
+    
+    /**
+     * Full text of documents extracted before the plain-text artifact existed
+     * (read from extracted-text.json)
+     */
+    public byte[] readLegacyExtractedText(FileMetadata metadata) {
+        try (InputStream json = minioService.downloadFile(metadata.getMinioPathExtracted())) {
+            return objectMapper.readTree(json).path("fullText").asText("").getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read extracted text for file: " + metadata.getId(), e);
         }
-        return minioService.downloadFile(metadata.getMinioPathExtracted());
     }
     
     /**
-     * Calculate SHA-256 checksum
+     * Delete file metadata from H2
      */
-    private String calculateChecksum(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            log.error("Error calculating checksum", e);
-            return null;
+    public void deleteMetadata(FileMetadata metadata) {
+        repository.deleteById(metadata.getId());
+        eventPublisher.publishEvent(new DocumentStatusChangedEvent(metadata.getId(), metadata.getUploadStatus(), null));
+    }
+    
+    private String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
         }
+        return hexString.toString();
     }
     
     /**
-     * Delete file from MinIO (original + extracted text)
+     * Delete file from MinIO (original + extracted text + plain-text transcription + dedup markers)
      */
-    public void deleteFromMinIO(String fileId, String originalPath, String extractedTextPath) {
+    public void deleteFromMinIO(String fileId, String originalPath, String extractedTextPath, String plainTextPath) {
         try {
             // Delete original file
             if (originalPath != null) {
@@ -157,6 +267,16 @@ public class DocumentUploadService {
                 minioService.deleteFile(extractedTextPath);
                 log.info("🗑️ Deleted extracted text from MinIO: {}", extractedTextPath);
             }
+            
+            // Delete plain-text transcription
+            if (plainTextPath != null) {
+                minioService.deleteFile(plainTextPath);
+                log.info("🗑️ Deleted transcription from MinIO: {}", plainTextPath);
+            }
+            
+            // Delete dedup markers of the consumers (files/{fileId}/processed/)
+            minioService.deleteFile("files/" + fileId + "/processed/extraction.json");
+            minioService.deleteFile("files/" + fileId + "/processed/indexing.json");
         } catch (Exception e) {
             log.error("❌ Error deleting from MinIO: {}", fileId, e);
         }
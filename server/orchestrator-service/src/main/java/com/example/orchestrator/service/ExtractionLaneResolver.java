@@ -0,0 +1,62 @@
+package com.example.orchestrator.service;
+
+import com.example.messaging.amqp.ExtractionLanes;
+import com.example.orchestrator.entity.FileMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Sceglie la corsia di estrazione di un documento in base a dimensione e formato:
+ * oltre large-threshold sempre "large", altrimenti "pdf", "text" o "office"
+ * (qualsiasi altro formato binario). Il formato viene dedotto dal content type
+ * dichiarato e, se generico o assente, dall'estensione del file.
+ */
+@Component
+public class ExtractionLaneResolver {
+
+    public static final String TEXT = ExtractionLanes.TEXT;
+    public static final String OFFICE = ExtractionLanes.OFFICE;
+    public static final String PDF = ExtractionLanes.PDF;
+    public static final String LARGE = ExtractionLanes.LARGE;
+
+    private static final Set<String> TEXT_EXTENSIONS = Set.of("txt", "csv", "md", "html", "htm", "xml", "json", "rtf");
+
+    @Value("${extraction.lanes.large-threshold:52428800}")
+    private long largeThreshold;
+
+    public String resolve(FileMetadata metadata) {
+        if (metadata.getFileSize() != null && metadata.getFileSize() > largeThreshold) {
+            return LARGE;
+        }
+
+        String contentType = metadata.getContentType() != null
+                ? metadata.getContentType().toLowerCase(Locale.ROOT)
+                : "";
+        if (contentType.equals("application/pdf")) {
+            return PDF;
+        }
+        if (contentType.startsWith("text/") || contentType.equals("application/json")
+                || contentType.equals("application/xml") || contentType.equals("application/rtf")) {
+            return TEXT;
+        }
+
+        String extension = extensionOf(metadata.getOriginalFilename());
+        if (extension.equals("pdf")) {
+            return PDF;
+        }
+        if (TEXT_EXTENSIONS.contains(extension)) {
+            return TEXT;
+        }
+        return OFFICE;
+    }
+
+    private String extensionOf(String filename) {
+        if (filename == null || !filename.contains(".")) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+}
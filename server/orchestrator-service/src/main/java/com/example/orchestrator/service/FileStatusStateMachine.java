@@ -0,0 +1,222 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.event.DocumentStatusChangedEvent;
+import com.example.orchestrator.repository.FileMetadataRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Macchina a stati della pipeline (uploadStatus):
+ * <pre>
+ *   UPLOADED  --extraction ok-->  EXTRACTED  --indexing ok-->  INDEXED
+ *   UPLOADED  --extraction ko-->  FAILED
+ *   EXTRACTED --indexing ko-->    FAILED
+ *   FAILED    --replay (DLQ)-->   UPLOADED / EXTRACTED
+ * </pre>
+ * Ogni transizione e' un singolo UPDATE condizionato sullo stato di partenza,
+ * quindi eventi duplicati o fuori ordine non modificano il record.
+ * Con status.write-behind.enabled le transizioni passano da StatusWriteBehindBuffer
+ * e vengono scritte a batch.
+ * Con pipeline.choreography.enabled l'extraction-service pubblica direttamente la
+ * richiesta di indicizzazione, quindi i due eventi di completamento possono arrivare
+ * in qualsiasi ordine: l'indicizzazione e' accettata anche da UPLOADED e un'estrazione
+ * arrivata in ritardo aggiorna solo i dati dell'estrazione.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileStatusStateMachine {
+
+    public static final String UPLOADED = "UPLOADED";
+    public static final String EXTRACTED = "EXTRACTED";
+    public static final String INDEXED = "INDEXED";
+    public static final String FAILED = "FAILED";
+
+    private final FileMetadataRepository repository;
+    private final StatusWriteBehindBuffer writeBehind;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${pipeline.choreography.enabled:false}")
+    private boolean choreography;
+
+    /**
+     * UPLOADED -> EXTRACTED (indexing PENDING, retryCount azzerato per la nuova fase)
+     *
+     * @param textPath     trascrizione in chiaro (null se l'extraction-service non la produce)
+     * @param textLength   lunghezza in byte UTF-8 del testo non compresso
+     * @param textEncoding identity o gzip
+     * @return true se la transizione e' stata applicata
+     */
+    @Transactional
+    public boolean extractionCompleted(String fileId, String textPath, Long textLength, String textEncoding) {
+        String extractedPath = "files/" + fileId + "/extracted-text.json";
+        if (writeBehind.isEnabled()) {
+            LocalDateTime now = LocalDateTime.now();
+            StatusUpdate update = new StatusUpdate(fileId, UPLOADED, EXTRACTED);
+            update.setExtractionStatus("COMPLETED");
+            update.setExtractionCompletedAt(now);
+            update.setMinioPathExtracted(extractedPath);
+            update.setMinioPathText(textPath);
+            update.setExtractedTextLength(textLength);
+            update.setExtractedTextEncoding(textEncoding);
+            update.setIndexingStatus("PENDING");
+            update.setIndexingStartedAt(now);
+            update.setRetryCount(0);
+            boolean accepted = writeBehind.submit(update);
+            if (!accepted && choreography) {
+                recordLateExtraction(fileId, extractedPath, textPath, textLength, textEncoding);
+            }
+            return applied(fileId, "extraction completed", UPLOADED, EXTRACTED, accepted);
+        }
+        boolean accepted = repository.markExtractionCompleted(fileId, UPLOADED, extractedPath,
+                textPath, textLength, textEncoding, LocalDateTime.now()) > 0;
+        if (!accepted && choreography) {
+            recordLateExtraction(fileId, extractedPath, textPath, textLength, textEncoding);
+        }
+        return applied(fileId, "extraction completed", UPLOADED, EXTRACTED, accepted);
+    }
+
+    /**
+     * UPLOADED -> FAILED
+     */
+    @Transactional
+    public boolean extractionFailed(String fileId, String error) {
+        if (writeBehind.isEnabled()) {
+            StatusUpdate update = new StatusUpdate(fileId, UPLOADED, FAILED);
+            update.setExtractionStatus("FAILED");
+            update.setExtractionError(error);
+            update.setExtractionCompletedAt(update.getUpdatedAt());
+            return applied(fileId, "extraction failed", UPLOADED, FAILED, writeBehind.submit(update));
+        }
+        return applied(fileId, "extraction failed", UPLOADED, FAILED,
+                repository.markExtractionFailed(fileId, UPLOADED, error, LocalDateTime.now()));
+    }
+
+    /**
+     * EXTRACTED -> INDEXED
+     * (in modalita' choreography anche UPLOADED -> INDEXED: indexing.completed puo'
+     * arrivare prima di extraction.completed)
+     */
+    @Transactional
+    public boolean indexingCompleted(String fileId) {
+        if (markIndexingCompleted(fileId, EXTRACTED)) {
+            return applied(fileId, "indexing completed", EXTRACTED, INDEXED, true);
+        }
+        if (choreography && markIndexingCompleted(fileId, UPLOADED)) {
+            return applied(fileId, "indexing completed", UPLOADED, INDEXED, true);
+        }
+        return applied(fileId, "indexing completed", EXTRACTED, INDEXED, false);
+    }
+
+    /**
+     * EXTRACTED -> FAILED (in modalita' choreography anche UPLOADED -> FAILED)
+     */
+    @Transactional
+    public boolean indexingFailed(String fileId, String error) {
+        if (markIndexingFailed(fileId, EXTRACTED, error)) {
+            return applied(fileId, "indexing failed", EXTRACTED, FAILED, true);
+        }
+        if (choreography && markIndexingFailed(fileId, UPLOADED, error)) {
+            return applied(fileId, "indexing failed", UPLOADED, FAILED, true);
+        }
+        return applied(fileId, "indexing failed", EXTRACTED, FAILED, false);
+    }
+
+    /**
+     * FAILED -> UPLOADED: estrazione fallita ripresa dalla dead-letter queue
+     * (vedi DeadLetterReplayService)
+     */
+    @Transactional
+    public boolean extractionReopened(String fileId) {
+        writeBehind.flush();
+        return reopened(fileId, "extraction replayed", UPLOADED,
+                repository.reopenExtraction(fileId, FAILED, LocalDateTime.now()));
+    }
+
+    /**
+     * FAILED -> EXTRACTED: indicizzazione fallita ripresa dalla dead-letter queue
+     */
+    @Transactional
+    public boolean indexingReopened(String fileId) {
+        writeBehind.flush();
+        return reopened(fileId, "indexing replayed", EXTRACTED,
+                repository.reopenIndexing(fileId, FAILED, LocalDateTime.now()));
+    }
+
+    /**
+     * Il replay scrive direttamente su H2: lo stato noto al buffer passa da FAILED a to,
+     * cosi' l'esito della fase ripresa viene accettato senza rileggere il record
+     */
+    private boolean reopened(String fileId, String transition, String to, int updatedRows) {
+        if (updatedRows > 0) {
+            writeBehind.statusWritten(fileId, to);
+        }
+        return applied(fileId, transition, FAILED, to, updatedRows);
+    }
+
+    private boolean markIndexingCompleted(String fileId, String from) {
+        if (writeBehind.isEnabled()) {
+            StatusUpdate update = new StatusUpdate(fileId, from, INDEXED);
+            update.setIndexingStatus("COMPLETED");
+            update.setIndexingCompletedAt(update.getUpdatedAt());
+            return writeBehind.submit(update);
+        }
+        return repository.markIndexingCompleted(fileId, from, LocalDateTime.now()) > 0;
+    }
+
+    private boolean markIndexingFailed(String fileId, String from, String error) {
+        if (writeBehind.isEnabled()) {
+            StatusUpdate update = new StatusUpdate(fileId, from, FAILED);
+            update.setIndexingStatus("FAILED");
+            update.setIndexingError(error);
+            update.setIndexingCompletedAt(update.getUpdatedAt());
+            return writeBehind.submit(update);
+        }
+        return repository.markIndexingFailed(fileId, from, error, LocalDateTime.now()) > 0;
+    }
+
+    /**
+     * Choreography: extraction.completed arrivato dopo indexing.completed. Lo stato resta
+     * INDEXED, vengono solo registrati i dati dell'estrazione (percorsi, testo, timestamp).
+     */
+    private void recordLateExtraction(String fileId, String extractedPath, String textPath,
+                                      Long textLength, String textEncoding) {
+        boolean recorded;
+        if (writeBehind.isEnabled()) {
+            StatusUpdate update = new StatusUpdate(fileId, INDEXED, INDEXED);
+            update.setExtractionStatus("COMPLETED");
+            update.setExtractionCompletedAt(update.getUpdatedAt());
+            update.setMinioPathExtracted(extractedPath);
+            update.setMinioPathText(textPath);
+            update.setExtractedTextLength(textLength);
+            update.setExtractedTextEncoding(textEncoding);
+            recorded = writeBehind.submit(update);
+        } else {
+            recorded = repository.recordExtractionDetails(fileId, INDEXED, extractedPath,
+                    textPath, textLength, textEncoding, LocalDateTime.now()) > 0;
+        }
+        if (recorded) {
+            log.info("📝 Recorded late extraction result for already indexed fileId: {}", fileId);
+        }
+    }
+
+    private boolean applied(String fileId, String transition, String from, String to, int updatedRows) {
+        return applied(fileId, transition, from, to, updatedRows > 0);
+    }
+
+    private boolean applied(String fileId, String transition, String from, String to, boolean accepted) {
+        if (!accepted) {
+            log.warn("⏭️ Ignored '{}' for fileId: {} (unknown file, duplicate or out-of-order event)",
+                    transition, fileId);
+            return false;
+        }
+        eventPublisher.publishEvent(new DocumentStatusChangedEvent(fileId, from, to));
+        return true;
+    }
+}
@@ -1,60 +1,156 @@
 package com.example.orchestrator.service;
 
-import com.example.orchestrator.dto.ExtractionRequestMessage;
-import com.example.orchestrator.dto.IndexingRequestMessage;
-import com.example.orchestrator.repository.FileMetadataRepository;
+import com.example.messaging.dto.ExtractionRequestMessage;
+import com.example.messaging.dto.IndexingRequestMessage;
+import com.example.orchestrator.entity.FileMetadata;
+import com.example.orchestrator.entity.OutboxMessage;
+import com.example.orchestrator.repository.OutboxMessageRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Pubblica i messaggi della pipeline tramite transactional outbox:
+ * i messaggi vengono scritti su H2 nella transazione del chiamante
+ * e inviati a RabbitMQ da OutboxRelayService.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MessagePublisherService {
-    
-    private final RabbitTemplate rabbitTemplate;
-    private final FileMetadataRepository repository;
-    
+
+    private final OutboxMessageRepository outboxRepository;
+    private final ObjectMapper objectMapper;
+    private final ExtractionLaneResolver laneResolver;
+    private final StatusWriteBehindBuffer writeBehind;
+    private final OutboxRelayService outboxRelay;
+
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
-    
+
     @Value("${rabbitmq.routing-key.extraction-request}")
     private String extractionRequestKey;
-    
+
     @Value("${rabbitmq.routing-key.indexing-request}")
     private String indexingRequestKey;
+
+    @Value("${rabbitmq.exchange.dead-letter}")
+    private String deadLetterExchange;
+
+    /**
+     * Pubblica richiesta di estrazione sulla corsia del documento
+     * (routing key {extraction-request}.{lane}, vedi ExtractionLaneResolver)
+     */
+    @Transactional
+    public void publishExtractionRequest(FileMetadata metadata) {
+        publishExtractionRequest(metadata, 0);
+    }
     
     /**
-     * Pubblica richiesta di estrazione
+     * Pubblica richiesta di estrazione per il tentativo attempt (retry del reaper): il
+     * checksum permette all'extraction-service di riconoscere un lavoro gia' completato
+     */
+    @Transactional
+    public void publishExtractionRequest(FileMetadata metadata, int attempt) {
+        String lane = laneResolver.resolve(metadata);
+        enqueue(metadata.getId(), exchangeName, extractionRequestKey + "." + lane,
+                extractionRequest(metadata, attempt), metadata.getPriority());
+        log.info("📤 Queued extraction request for fileId: {} (filename: {}, lane: {}, priority: {})",
+                metadata.getId(), metadata.getOriginalFilename(), lane, metadata.getPriority());
+    }
+
+    /**
+     * Richiesta di estrazione completa (filename, percorso, priorita', dimensione e checksum):
+     * la stessa per la corsia e per la dead-letter queue, da cui puo' essere ripubblicata
      */
-    public void publishExtractionRequest(String fileId) {
-        repository.findById(fileId).ifPresent(metadata -> {
-            metadata.setExtractionStartedAt(LocalDateTime.now());
-            repository.save(metadata);
-            
-            // Passa anche il filename al servizio di estrazione
-            String filename = metadata.getOriginalFilename();
-            ExtractionRequestMessage message = new ExtractionRequestMessage(fileId, filename, LocalDateTime.now());
-            rabbitTemplate.convertAndSend(exchangeName, extractionRequestKey, message);
-            log.info("📤 Published extraction request for fileId: {} (filename: {})", fileId, filename);
-        });
+    private ExtractionRequestMessage extractionRequest(FileMetadata metadata, int attempt) {
+        // Passa anche il filename al servizio di estrazione
+        ExtractionRequestMessage message = new ExtractionRequestMessage(
+                metadata.getId(), metadata.getOriginalFilename(), LocalDateTime.now());
+        message.setPriority(metadata.getPriority());
+        message.setMinioPath(metadata.getMinioPathOriginal());
+        message.setFileSize(metadata.getFileSize());
+        message.setChecksum(metadata.getChecksum());
+        message.setAttempt(attempt);
+        return message;
+    }
+
+    /**
+     * Pubblica richiesta di indicizzazione con la priorita' del documento
+     * (indexingStartedAt viene impostato dalla transizione EXTRACTED di FileStatusStateMachine)
+     */
+    @Transactional
+    public void publishIndexingRequest(String fileId, Integer priority, String checksum, int attempt) {
+        publishIndexingRequest(fileId, priority, checksum, attempt, null, null);
     }
     
     /**
-     * Pubblica richiesta di indicizzazione
+     * Pubblica richiesta di indicizzazione con chunk e metadati inline (documenti piccoli,
+     * ricevuti inline in extraction.completed): l'indexing-service non legge extracted-text.json.
+     * La riga di outbox non contiene i chunk, che passano al relay solo in memoria: dopo un
+     * riavvio la richiesta parte senza e l'indexing-service li legge da MinIO
      */
-    public void publishIndexingRequest(String fileId) {
-        repository.findById(fileId).ifPresent(metadata -> {
-            metadata.setIndexingStartedAt(LocalDateTime.now());
-            repository.save(metadata);
-        });
-        
+    @Transactional
+    public void publishIndexingRequest(String fileId, Integer priority, String checksum, int attempt,
+                                       List<String> chunks, Map<String, String> metadata) {
         IndexingRequestMessage message = new IndexingRequestMessage(fileId);
-        rabbitTemplate.convertAndSend(exchangeName, indexingRequestKey, message);
-        log.info("📤 Published indexing request for fileId: {}", fileId);
+        message.setChecksum(checksum);
+        message.setAttempt(attempt);
+        OutboxMessage outbox = enqueue(fileId, exchangeName, indexingRequestKey, message, priority);
+        if (chunks != null) {
+            message.setChunks(chunks);
+            message.setMetadata(metadata);
+            outboxRelay.attachInline(outbox.getId(), message);
+        }
+        log.info("📤 Queued indexing request for fileId: {} (priority: {}{})", fileId, priority,
+                chunks != null ? ", " + chunks.size() + " inline chunks" : "");
+    }
+
+    /**
+     * Sposta la richiesta di estrazione nella dead-letter queue (tentativi esauriti)
+     *
+     * @param attempt tentativo a cui il documento e' stato abbandonato
+     */
+    @Transactional
+    public void publishExtractionDeadLetter(FileMetadata metadata, int attempt) {
+        enqueue(metadata.getId(), deadLetterExchange, extractionRequestKey + "." + laneResolver.resolve(metadata),
+                extractionRequest(metadata, attempt), metadata.getPriority());
+        log.info("☠️ Queued extraction request for fileId: {} to dead-letter queue", metadata.getId());
+    }
+
+    /**
+     * Sposta la richiesta di indicizzazione nella dead-letter queue (tentativi esauriti)
+     */
+    @Transactional
+    public void publishIndexingDeadLetter(String fileId) {
+        enqueue(fileId, deadLetterExchange, indexingRequestKey, new IndexingRequestMessage(fileId), null);
+        log.info("☠️ Queued indexing request for fileId: {} to dead-letter queue", fileId);
+    }
+
+    /**
+     * Scrive il messaggio nella tabella outbox, dopo lo stato del documento
+     * ancora nel write-behind buffer
+     */
+    private OutboxMessage enqueue(String fileId, String exchange, String routingKey, Object message, Integer priority) {
+        writeBehind.writeThrough(fileId);
+        try {
+            OutboxMessage outbox = new OutboxMessage();
+            outbox.setAggregateId(fileId);
+            outbox.setExchange(exchange);
+            outbox.setRoutingKey(routingKey);
+            outbox.setPayloadType(OutboxMessage.payloadTypeOf(message.getClass()));
+            outbox.setPayload(objectMapper.writeValueAsString(message));
+            outbox.setPriority(priority);
+            return outboxRepository.save(outbox);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to write outbox message for fileId: " + fileId, e);
+        }
     }
 }
@@ -2,26 +2,35 @@ package com.example.orchestrator.service;
 
 import io.minio.*;
 import io.minio.errors.*;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class MinioService {
     
     private final MinioClient minioClient;
+    private final MinioClient presignClient;
     
     @Value("${minio.bucket-name}")
     private String bucketName;
     
+    public MinioService(MinioClient minioClient, @Qualifier("presignMinioClient") MinioClient presignClient) {
+        this.minioClient = minioClient;
+        this.presignClient = presignClient;
+    }
+    
     /**
      * Inizializza il bucket se non esiste
      */
@@ -89,6 +98,25 @@ public class MinioService {
         }
     }
     
+    /**
+     * Download a byte range of a file from MinIO (ranged GET)
+     */
+    public InputStream downloadFile(String objectName, long offset, long length) {
+        try {
+            return minioClient.getObject(
+                    GetObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .offset(offset)
+                            .length(length)
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("❌ Error downloading range {}+{} of file from MinIO: {}", offset, length, objectName, e);
+            throw new RuntimeException("Failed to download file from MinIO", e);
+        }
+    }
+    
     /**
      * Delete file from MinIO
      */
@@ -124,6 +152,23 @@ public class MinioService {
         }
     }
     
+    /**
+     * Size in bytes of a stored object
+     */
+    public long getObjectSize(String objectName) {
+        try {
+            return minioClient.statObject(
+                    StatObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .build()
+            ).size();
+        } catch (Exception e) {
+            log.error("❌ Error reading object size from MinIO: {}", objectName, e);
+            throw new RuntimeException("Failed to stat file on MinIO", e);
+        }
+    }
+    
     /**
      * Get presigned URL for download (valid for 7 days)
      */
@@ -142,4 +187,33 @@ public class MinioService {
             throw new RuntimeException("Failed to generate presigned URL", e);
         }
     }
+    
+    /**
+     * Get short-lived presigned URL for download, signed for the public endpoint.
+     * The response headers (filename, content type) are fixed in the signature.
+     */
+    public String getPresignedDownloadUrl(String objectName, int expirySeconds, String filename, String contentType) {
+        try {
+            Map<String, String> responseHeaders = new HashMap<>();
+            responseHeaders.put("response-content-disposition", ContentDisposition.attachment()
+                    .filename(filename, StandardCharsets.UTF_8)
+                    .build()
+                    .toString());
+            if (contentType != null) {
+                responseHeaders.put("response-content-type", contentType);
+            }
+            return presignClient.getPresignedObjectUrl(
+                    GetPresignedObjectUrlArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .method(io.minio.http.Method.GET)
+                            .expiry(expirySeconds)
+                            .extraQueryParams(responseHeaders)
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("❌ Error generating presigned URL: {}", objectName, e);
+            throw new RuntimeException("Failed to generate presigned URL", e);
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.entity.OutboxMessage;
+import com.example.orchestrator.repository.OutboxMessageRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Svuota la tabella outbox a batch: invia tutti i messaggi del batch
+ * in modo asincrono e poi attende i publisher confirm di RabbitMQ.
+ * I messaggi confermati vengono cancellati, gli altri ritentati con backoff
+ * (consegna at-least-once).
+ * Le richieste con chunk inline (documenti piccoli) hanno nella tabella solo la versione
+ * senza chunk: quella completa resta in memoria fino al confirm (vedi attachInline).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxRelayService {
+
+    private final OutboxMessageRepository outboxRepository;
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${outbox.relay.batch-size:100}")
+    private int batchSize;
+
+    @Value("${outbox.relay.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    @Value("${outbox.relay.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${outbox.relay.inline-max-messages:1000}")
+    private int inlineMaxMessages;
+
+    // Versione con payload inline dei messaggi in outbox, per id della riga
+    private final Map<Long, Object> inlineMessages = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${outbox.relay.interval-ms:200}")
+    public void relay() {
+        List<OutboxMessage> batch;
+        do {
+            batch = outboxRepository.findByAvailableAtLessThanEqualOrderByIdAsc(
+                    LocalDateTime.now(), PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                return;
+            }
+            publishBatch(batch);
+        } while (batch.size() == batchSize);
+    }
+
+    /**
+     * Righe scritte prima degli id logici hanno ancora il nome della classe nel payloadType
+     * (anche con il vecchio package dei DTO): vengono convertite all'avvio
+     */
+    @PostConstruct
+    public void migratePayloadTypes() {
+        OutboxMessage.PAYLOAD_TYPES.forEach((typeId, type) -> {
+            int migrated = outboxRepository.renamePayloadType("%." + type.getSimpleName(), typeId);
+            if (migrated > 0) {
+                log.info("📦 Converted {} outbox messages to payload type {}", migrated, typeId);
+            }
+        });
+    }
+
+    /**
+     * Messaggio da inviare al posto del payload della riga outboxId, scartato se la
+     * transazione del chiamante va in rollback. Oltre inline-max-messages (RabbitMQ
+     * irraggiungibile) o dopo un riavvio parte il payload salvato, senza chunk
+     */
+    public void attachInline(Long outboxId, Object message) {
+        if (inlineMessages.size() >= inlineMaxMessages) {
+            return;
+        }
+        inlineMessages.put(outboxId, message);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        inlineMessages.remove(outboxId);
+                    }
+                }
+            });
+        }
+    }
+
+    private void publishBatch(List<OutboxMessage> batch) {
+        List<PendingConfirm> pending = new ArrayList<>(batch.size());
+        List<OutboxMessage> failed = new ArrayList<>();
+
+        // 1. Send the whole batch without waiting
+        for (OutboxMessage outbox : batch) {
+            try {
+                Object message = inlineMessages.get(outbox.getId());
+                if (message == null) {
+                    Class<?> type = OutboxMessage.PAYLOAD_TYPES.get(outbox.getPayloadType());
+                    if (type == null) {
+                        throw new IllegalStateException("Unknown outbox payload type: " + outbox.getPayloadType());
+                    }
+                    message = objectMapper.readValue(outbox.getPayload(), type);
+                }
+                CorrelationData correlation = new CorrelationData(String.valueOf(outbox.getId()));
+                Integer priority = outbox.getPriority();
+                rabbitTemplate.convertAndSend(outbox.getExchange(), outbox.getRoutingKey(), message, m -> {
+                    if (priority != null) {
+                        m.getMessageProperties().setPriority(priority);
+                    }
+                    return m;
+                }, correlation);
+                pending.add(new PendingConfirm(outbox, correlation));
+            } catch (Exception e) {
+                outbox.setLastError(e.getMessage());
+                failed.add(outbox);
+            }
+        }
+
+        // 2. Collect the publisher confirms
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        List<Long> confirmed = new ArrayList<>(pending.size());
+        for (PendingConfirm p : pending) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                CorrelationData.Confirm confirm = p.correlation().getFuture().get(remaining, TimeUnit.NANOSECONDS);
+                if (confirm.isAck() && p.correlation().getReturned() == null) {
+                    confirmed.add(p.outbox().getId());
+                } else {
+                    p.outbox().setLastError(p.correlation().getReturned() != null
+                            ? "Returned: " + p.correlation().getReturned().getReplyText()
+                            : "Nack: " + confirm.getReason());
+                    failed.add(p.outbox());
+                }
+            } catch (Exception e) {
+                p.outbox().setLastError("No publisher confirm: " + e);
+                failed.add(p.outbox());
+            }
+        }
+
+        if (!confirmed.isEmpty()) {
+            outboxRepository.deleteAllByIdInBatch(confirmed);
+            confirmed.forEach(inlineMessages::remove);
+            log.info("📤 Relayed {} outbox messages", confirmed.size());
+        }
+
+        if (!failed.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            for (OutboxMessage outbox : failed) {
+                int attempts = outbox.getAttempts() != null ? outbox.getAttempts() + 1 : 1;
+                outbox.setAttempts(attempts);
+                long backoff = retryBackoffMs << Math.min(attempts - 1, 6);
+                outbox.setAvailableAt(now.plusNanos(TimeUnit.MILLISECONDS.toNanos(backoff)));
+                log.warn("⚠️ Outbox message {} for fileId {} not confirmed (attempt {}): {}",
+                        outbox.getId(), outbox.getAggregateId(), attempts, outbox.getLastError());
+            }
+            outboxRepository.saveAll(failed);
+        }
+    }
+
+    private record PendingConfirm(OutboxMessage outbox, CorrelationData correlation) {
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.event.DocumentStatusChangedEvent;
+import com.example.orchestrator.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contatori dei documenti per uploadStatus, tenuti in memoria.
+ * Vengono aggiornati a ogni transizione (dopo il commit) e riallineati
+ * periodicamente con una sola query GROUP BY uploadStatus.
+ * Esportati come gauge Micrometer "documents.status" (tag status).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StatusCounterStore {
+
+    private static final List<String> STATUSES = List.of(
+            FileStatusStateMachine.UPLOADED,
+            FileStatusStateMachine.EXTRACTED,
+            FileStatusStateMachine.INDEXED,
+            FileStatusStateMachine.FAILED);
+
+    private final FileMetadataRepository repository;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerGauges() {
+        for (String status : STATUSES) {
+            Gauge.builder("documents.status", counter(status), AtomicLong::get)
+                    .description("Number of documents by upload status")
+                    .tag("status", status)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("documents.total", this, StatusCounterStore::total)
+                .description("Total number of documents")
+                .register(meterRegistry);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DocumentStatusChangedEvent event) {
+        if (event.getFromStatus() != null) {
+            counter(event.getFromStatus()).decrementAndGet();
+        }
+        if (event.getToStatus() != null) {
+            counter(event.getToStatus()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Riallinea i contatori con H2 (una sola query)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${stats.reconcile-interval-ms:60000}",
+               initialDelayString = "${stats.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        try {
+            Map<String, Long> actual = new HashMap<>();
+            for (Object[] row : repository.countGroupByUploadStatus()) {
+                actual.put((String) row[0], (Long) row[1]);
+            }
+            for (String status : counters.keySet()) {
+                actual.putIfAbsent(status, 0L);
+            }
+            actual.forEach((status, count) -> {
+                long previous = counter(status).getAndSet(count);
+                if (previous != count) {
+                    log.debug("📊 Reconciled {} counter: {} -> {}", status, previous, count);
+                }
+            });
+        } catch (Exception e) {
+            log.error("❌ Error reconciling status counters", e);
+        }
+    }
+
+    /**
+     * Statistiche lette dalla memoria
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", total());
+        for (String status : STATUSES) {
+            stats.put(status.toLowerCase(), counter(status).get());
+        }
+        return stats;
+    }
+
+    private long total() {
+        return counters.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    private AtomicLong counter(String status) {
+        return counters.computeIfAbsent(status, s -> new AtomicLong());
+    }
+}
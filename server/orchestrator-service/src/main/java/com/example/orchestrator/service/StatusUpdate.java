@@ -0,0 +1,82 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.entity.FileMetadata;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Transizione di stato di un FileMetadata non ancora scritta su H2
+ * (modalita' write-behind). Piu' transizioni dello stesso file vengono
+ * fuse in un unico aggiornamento: expectedStatus resta quello della prima,
+ * i campi valorizzati dalle successive sovrascrivono i precedenti.
+ */
+@Data
+public class StatusUpdate {
+
+    private final String fileId;
+    private String expectedStatus; // guard: uploadStatus atteso su H2
+
+    private String uploadStatus;
+    private String extractionStatus;
+    private String indexingStatus;
+    private String minioPathExtracted;
+    private String minioPathText;
+    private Long extractedTextLength;
+    private String extractedTextEncoding;
+    private String extractionError;
+    private String indexingError;
+    private LocalDateTime extractionCompletedAt;
+    private LocalDateTime indexingStartedAt;
+    private LocalDateTime indexingCompletedAt;
+    private Integer retryCount;
+    private LocalDateTime updatedAt;
+
+    public StatusUpdate(String fileId, String expectedStatus, String uploadStatus) {
+        this.fileId = fileId;
+        this.expectedStatus = expectedStatus;
+        this.uploadStatus = uploadStatus;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    /**
+     * Fonde una transizione successiva in questa
+     */
+    public StatusUpdate merge(StatusUpdate next) {
+        uploadStatus = next.uploadStatus;
+        if (next.extractionStatus != null) extractionStatus = next.extractionStatus;
+        if (next.indexingStatus != null) indexingStatus = next.indexingStatus;
+        if (next.minioPathExtracted != null) minioPathExtracted = next.minioPathExtracted;
+        if (next.minioPathText != null) minioPathText = next.minioPathText;
+        if (next.extractedTextLength != null) extractedTextLength = next.extractedTextLength;
+        if (next.extractedTextEncoding != null) extractedTextEncoding = next.extractedTextEncoding;
+        if (next.extractionError != null) extractionError = next.extractionError;
+        if (next.indexingError != null) indexingError = next.indexingError;
+        if (next.extractionCompletedAt != null) extractionCompletedAt = next.extractionCompletedAt;
+        if (next.indexingStartedAt != null) indexingStartedAt = next.indexingStartedAt;
+        if (next.indexingCompletedAt != null) indexingCompletedAt = next.indexingCompletedAt;
+        if (next.retryCount != null) retryCount = next.retryCount;
+        updatedAt = next.updatedAt;
+        return this;
+    }
+
+    /**
+     * Applica l'aggiornamento pendente a un FileMetadata letto da H2
+     */
+    public void applyTo(FileMetadata metadata) {
+        metadata.setUploadStatus(uploadStatus);
+        if (extractionStatus != null) metadata.setExtractionStatus(extractionStatus);
+        if (indexingStatus != null) metadata.setIndexingStatus(indexingStatus);
+        if (minioPathExtracted != null) metadata.setMinioPathExtracted(minioPathExtracted);
+        if (minioPathText != null) metadata.setMinioPathText(minioPathText);
+        if (extractedTextLength != null) metadata.setExtractedTextLength(extractedTextLength);
+        if (extractedTextEncoding != null) metadata.setExtractedTextEncoding(extractedTextEncoding);
+        if (extractionError != null) metadata.setExtractionError(extractionError);
+        if (indexingError != null) metadata.setIndexingError(indexingError);
+        if (extractionCompletedAt != null) metadata.setExtractionCompletedAt(extractionCompletedAt);
+        if (indexingStartedAt != null) metadata.setIndexingStartedAt(indexingStartedAt);
+        if (indexingCompletedAt != null) metadata.setIndexingCompletedAt(indexingCompletedAt);
+        if (retryCount != null) metadata.setRetryCount(retryCount);
+        metadata.setUpdatedAt(updatedAt);
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.entity.FileMetadata;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind delle transizioni di stato (opzionale, status.write-behind.enabled).
+ * Le transizioni vengono fuse per fileId in memoria e scritte su H2 con
+ * JDBC batch update ogni flush-interval-ms o quando si superano max-pending
+ * aggiornamenti. Allo shutdown (dopo lo stop dei listener RabbitMQ) il buffer
+ * viene svuotato completamente.
+ * Lo stato noto in memoria e' solo un suggerimento: se non coincide con quello atteso
+ * da una transizione si rilegge da H2, perche' alcune scritture (upload, replay dalla
+ * dead-letter queue) non passano dal buffer. Prima di scrivere un messaggio in outbox
+ * la transizione del documento viene scritta nella stessa transazione (writeThrough).
+ * I lock sono ReentrantLock e non monitor: le scritture su H2 avvengono con il lock
+ * preso e con i virtual thread un synchronized bloccherebbe anche il carrier thread.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StatusWriteBehindBuffer implements SmartLifecycle {
+
+    private static final String UPDATE_SQL =
+            "UPDATE file_metadata SET upload_status = ?, " +
+            "extraction_status = COALESCE(?, extraction_status), " +
+            "indexing_status = COALESCE(?, indexing_status), " +
+            "minio_path_extracted = COALESCE(?, minio_path_extracted), " +
+            "minio_path_text = COALESCE(?, minio_path_text), " +
+            "extracted_text_length = COALESCE(?, extracted_text_length), " +
+            "extracted_text_encoding = COALESCE(?, extracted_text_encoding), " +
+            "extraction_error = COALESCE(?, extraction_error), " +
+            "indexing_error = COALESCE(?, indexing_error), " +
+            "extraction_completed_at = COALESCE(?, extraction_completed_at), " +
+            "indexing_started_at = COALESCE(?, indexing_started_at), " +
+            "indexing_completed_at = COALESCE(?, indexing_completed_at), " +
+            "retry_count = COALESCE(?, retry_count), " +
+            "updated_at = ? " +
+            "WHERE id = ? AND upload_status = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${status.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${status.write-behind.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${status.write-behind.max-pending:500}")
+    private int maxPending;
+
+    @Value("${status.write-behind.known-status-cache-size:10000}")
+    private int knownStatusCacheSize;
+
+    private final Map<String, StatusUpdate> pending = new ConcurrentHashMap<>();
+    private final Map<String, StatusUpdate> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock submitLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Map<String, String> knownStatus;
+    private ScheduledExecutorService flusher;
+    private volatile boolean running;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Accoda una transizione. La guard viene valutata sulla transizione non ancora scritta,
+     * se c'e', altrimenti sullo stato noto in memoria; se questo manca o non coincide si
+     * legge lo stato da H2. L'UPDATE condizionato al flush la verifica comunque.
+     *
+     * @return true se la transizione e' stata accettata
+     */
+    public boolean submit(StatusUpdate update) {
+        String fileId = update.getFileId();
+        submitLock.lock();
+        try {
+            String current = unwrittenStatus(fileId);
+            if (current == null) {
+                current = knownStatus.get(fileId);
+                if (!update.getExpectedStatus().equals(current)) {
+                    current = readStatus(fileId);
+                }
+            }
+            if (!update.getExpectedStatus().equals(current)) {
+                return false;
+            }
+
+            pending.merge(fileId, update, StatusUpdate::merge);
+            knownStatus.put(fileId, update.getUploadStatus());
+        } finally {
+            submitLock.unlock();
+        }
+
+        if (running && pending.size() >= maxPending) {
+            flusher.execute(this::flush);
+        }
+        return true;
+    }
+
+    /**
+     * Stato scritto direttamente su H2, senza passare dal buffer
+     */
+    public void statusWritten(String fileId, String uploadStatus) {
+        if (enabled) {
+            knownStatus.put(fileId, uploadStatus);
+        }
+    }
+
+    /**
+     * Scrive subito la transizione non ancora scritta di fileId, nella transazione del
+     * chiamante: un messaggio in outbox non deve partire prima dello stato che lo ha
+     * prodotto, altrimenti dopo un crash l'esito della fase successiva trova ancora lo
+     * stato precedente e viene scartato. Se la transazione del chiamante va in rollback
+     * la transizione torna nel buffer.
+     */
+    public void writeThrough(String fileId) {
+        if (!enabled) {
+            return;
+        }
+        StatusUpdate update;
+        // Attende anche il batch in corso, che potrebbe contenere lo stesso documento
+        flushLock.lock();
+        try {
+            update = pending.remove(fileId);
+            if (update == null) {
+                return;
+            }
+            if (jdbcTemplate.update(UPDATE_SQL, toArgs(List.of(update)).get(0)) == 0) {
+                knownStatus.remove(fileId);
+                log.warn("⏭️ Write-behind update rejected for fileId: {} (expected status {})",
+                        fileId, update.getExpectedStatus());
+                return;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        // Piu' vecchia di quanto accodato nel frattempo
+                        pending.merge(fileId, update, (newer, older) -> older.merge(newer));
+                        log.warn("↩️ Write-through of fileId: {} rolled back, update re-queued", fileId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Applica a un record letto da H2 le transizioni non ancora scritte
+     */
+    public FileMetadata overlay(FileMetadata metadata) {
+        if (!enabled || metadata == null) {
+            return metadata;
+        }
+        StatusUpdate flushing = inFlight.get(metadata.getId());
+        if (flushing != null) {
+            flushing.applyTo(metadata);
+        }
+        StatusUpdate queued = pending.get(metadata.getId());
+        if (queued != null) {
+            queued.applyTo(metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Scrive su H2 tutte le transizioni pendenti in un unico batch
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            if (!pending.isEmpty()) {
+                flushBatch();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushBatch() {
+        List<StatusUpdate> batch = new ArrayList<>(pending.size());
+        for (String fileId : new ArrayList<>(pending.keySet())) {
+            pending.computeIfPresent(fileId, (id, update) -> {
+                inFlight.put(id, update);
+                batch.add(update);
+                return null;
+            });
+        }
+
+        try {
+            int[] updated = transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(UPDATE_SQL, toArgs(batch)));
+            for (int i = 0; i < batch.size(); i++) {
+                if (updated != null && updated[i] == 0) {
+                    StatusUpdate rejected = batch.get(i);
+                    knownStatus.remove(rejected.getFileId());
+                    log.warn("⏭️ Write-behind update rejected for fileId: {} (expected status {})",
+                            rejected.getFileId(), rejected.getExpectedStatus());
+                }
+            }
+            log.debug("💾 Flushed {} status updates to H2", batch.size());
+
+        } catch (Exception e) {
+            log.error("❌ Error flushing {} status updates, will retry", batch.size(), e);
+            // Re-queue: the failed updates are older than anything submitted meanwhile
+            for (StatusUpdate update : batch) {
+                pending.merge(update.getFileId(), update, (newer, older) -> older.merge(newer));
+            }
+        } finally {
+            batch.forEach(update -> inFlight.remove(update.getFileId()));
+        }
+    }
+
+    private String unwrittenStatus(String fileId) {
+        StatusUpdate update = pending.get(fileId);
+        if (update == null) {
+            update = inFlight.get(fileId);
+        }
+        return update != null ? update.getUploadStatus() : null;
+    }
+
+    private String readStatus(String fileId) {
+        List<String> status = jdbcTemplate.queryForList(
+                "SELECT upload_status FROM file_metadata WHERE id = ?", String.class, fileId);
+        return status.isEmpty() ? null : status.get(0);
+    }
+
+    private List<Object[]> toArgs(List<StatusUpdate> batch) {
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (StatusUpdate u : batch) {
+            args.add(new Object[]{
+                    u.getUploadStatus(),
+                    u.getExtractionStatus(),
+                    u.getIndexingStatus(),
+                    u.getMinioPathExtracted(),
+                    u.getMinioPathText(),
+                    u.getExtractedTextLength(),
+                    u.getExtractedTextEncoding(),
+                    u.getExtractionError(),
+                    u.getIndexingError(),
+                    u.getExtractionCompletedAt(),
+                    u.getIndexingStartedAt(),
+                    u.getIndexingCompletedAt(),
+                    u.getRetryCount(),
+                    u.getUpdatedAt(),
+                    u.getFileId(),
+                    u.getExpectedStatus()
+            });
+        }
+        return args;
+    }
+
+    // ========================================
+    // Lifecycle: stops after the listener containers (lower phase),
+    // so no transition is accepted after the final flush
+    // ========================================
+
+    @Override
+    public void start() {
+        knownStatus = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > knownStatusCacheSize;
+            }
+        });
+        if (enabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "status-write-behind"));
+            flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("💾 Status write-behind enabled (flush every {}ms or {} pending updates)",
+                    flushIntervalMs, maxPending);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int attempts = 0;
+        while (!pending.isEmpty() && attempts++ < 5) {
+            flush();
+        }
+        if (!pending.isEmpty()) {
+            log.error("❌ {} status updates could not be written to H2 on shutdown", pending.size());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 1000;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.entity.FileMetadata;
+import com.example.orchestrator.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Recupera i documenti rimasti bloccati in una fase della pipeline
+ * (nodo morto durante il lavoro o, con reaper.queued-deadline-ms, messaggio perso):
+ * <pre>
+ *   UPLOADED  da extractionPickedUpAt oltre la deadline -> nuova richiesta di estrazione
+ *   EXTRACTED da indexingPickedUpAt   oltre la deadline -> nuova richiesta di indicizzazione
+ * </pre>
+ * La deadline parte dalla presa in carico del worker (StageStartedMessage): una richiesta
+ * ferma in coda dietro un backlog non e' bloccata. Le richieste mai prese in carico usano
+ * la queued-deadline dall'accodamento (extraction/indexingStartedAt).
+ * La deadline raddoppia a ogni tentativo (deadline * 2^retryCount, azzerato a fine estrazione);
+ * il raddoppio e' nella query, un livello di retryCount alla volta, cosi' il LIMIT del batch
+ * conta solo documenti davvero scaduti.
+ * Esauriti i max-retries il documento passa a FAILED e la richiesta finisce nella
+ * dead-letter queue.
+ * Retry e ripubblicazione (outbox) avvengono nella stessa transazione, con UPDATE
+ * condizionato sull'istante di inizio letto: se nel frattempo la fase si e' conclusa
+ * o un'altra istanza l'ha gia' ripresa, il documento viene saltato.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "reaper.enabled", havingValue = "true", matchIfMissing = true)
+public class StuckJobReaper {
+
+    private final FileMetadataRepository repository;
+    private final FileStatusStateMachine stateMachine;
+    private final MessagePublisherService messagePublisher;
+    private final StatusWriteBehindBuffer writeBehind;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${reaper.batch-size:100}")
+    private int batchSize;
+
+    @Value("${reaper.extraction-deadline-ms:600000}")
+    private long extractionDeadlineMs;
+
+    @Value("${reaper.indexing-deadline-ms:300000}")
+    private long indexingDeadlineMs;
+
+    @Value("${reaper.queued-deadline-ms:0}")
+    private long queuedDeadlineMs;
+
+    @Value("${reaper.max-retries:3}")
+    private int maxRetries;
+
+    // Cutoff che nessuna riga soddisfa: queued-deadline disabilitata
+    private static final LocalDateTime NEVER = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    @Scheduled(fixedDelayString = "${reaper.interval-ms:30000}", initialDelayString = "${reaper.interval-ms:30000}")
+    public void reap() {
+        try {
+            reapExtractions();
+            reapIndexing();
+        } catch (Exception e) {
+            log.error("❌ Error while reaping stuck documents", e);
+        }
+    }
+
+    private void reapExtractions() {
+        LocalDateTime now = LocalDateTime.now();
+        for (int level = 0; level <= maxRetries; level++) {
+            List<FileMetadata> candidates = repository.findStuckExtractions(level, upperBound(level),
+                    minus(now, backoff(extractionDeadlineMs, level)), queuedCutoff(now, level),
+                    PageRequest.of(0, batchSize));
+            for (FileMetadata metadata : candidates) {
+                retryOrFailExtraction(metadata, now);
+            }
+        }
+    }
+
+    private void retryOrFailExtraction(FileMetadata metadata, LocalDateTime now) {
+        writeBehind.overlay(metadata);
+        if (!FileStatusStateMachine.UPLOADED.equals(metadata.getUploadStatus())) {
+            return;
+        }
+        int retries = retriesOf(metadata);
+
+        if (retries < maxRetries) {
+            Boolean retried = transactionTemplate.execute(status -> {
+                if (repository.markExtractionRetried(metadata.getId(), FileStatusStateMachine.UPLOADED,
+                        metadata.getExtractionStartedAt(),
+                        lastActivity(metadata.getExtractionPickedUpAt(), metadata.getExtractionStartedAt()),
+                        now) == 0) {
+                    return false;
+                }
+                messagePublisher.publishExtractionRequest(metadata, retries + 1);
+                return true;
+            });
+            if (Boolean.TRUE.equals(retried)) {
+                count("documents.reaper.retried", "extraction");
+                log.warn("🔁 Extraction stuck for fileId: {}, retry {}/{}", metadata.getId(), retries + 1, maxRetries);
+            }
+        } else {
+            String error = "Extraction timed out after " + retries + " retries";
+            Boolean failed = transactionTemplate.execute(status -> {
+                if (!stateMachine.extractionFailed(metadata.getId(), error)) {
+                    return false;
+                }
+                messagePublisher.publishExtractionDeadLetter(metadata, retries + 1);
+                return true;
+            });
+            if (Boolean.TRUE.equals(failed)) {
+                count("documents.reaper.dead_lettered", "extraction");
+                log.error("☠️ {} for fileId: {}, moved to dead-letter queue", error, metadata.getId());
+            }
+        }
+    }
+
+    private void reapIndexing() {
+        LocalDateTime now = LocalDateTime.now();
+        for (int level = 0; level <= maxRetries; level++) {
+            List<FileMetadata> candidates = repository.findStuckIndexing(level, upperBound(level),
+                    minus(now, backoff(indexingDeadlineMs, level)), queuedCutoff(now, level),
+                    PageRequest.of(0, batchSize));
+            for (FileMetadata metadata : candidates) {
+                retryOrFailIndexing(metadata, now);
+            }
+        }
+    }
+
+    private void retryOrFailIndexing(FileMetadata metadata, LocalDateTime now) {
+        writeBehind.overlay(metadata);
+        if (!FileStatusStateMachine.EXTRACTED.equals(metadata.getUploadStatus())) {
+            return;
+        }
+        int retries = retriesOf(metadata);
+
+        if (retries < maxRetries) {
+            Boolean retried = transactionTemplate.execute(status -> {
+                if (repository.markIndexingRetried(metadata.getId(), FileStatusStateMachine.EXTRACTED,
+                        metadata.getIndexingStartedAt(),
+                        lastActivity(metadata.getIndexingPickedUpAt(), metadata.getIndexingStartedAt()),
+                        now) == 0) {
+                    return false;
+                }
+                messagePublisher.publishIndexingRequest(metadata.getId(), metadata.getPriority(),
+                        metadata.getChecksum(), retries + 1);
+                return true;
+            });
+            if (Boolean.TRUE.equals(retried)) {
+                count("documents.reaper.retried", "indexing");
+                log.warn("🔁 Indexing stuck for fileId: {}, retry {}/{}", metadata.getId(), retries + 1, maxRetries);
+            }
+        } else {
+            String error = "Indexing timed out after " + retries + " retries";
+            Boolean failed = transactionTemplate.execute(status -> {
+                if (!stateMachine.indexingFailed(metadata.getId(), error)) {
+                    return false;
+                }
+                messagePublisher.publishIndexingDeadLetter(metadata.getId());
+                return true;
+            });
+            if (Boolean.TRUE.equals(failed)) {
+                count("documents.reaper.dead_lettered", "indexing");
+                log.error("☠️ {} for fileId: {}, moved to dead-letter queue", error, metadata.getId());
+            }
+        }
+    }
+
+    // L'ultimo livello raccoglie anche i documenti oltre max-retries (da mandare in FAILED)
+    private int upperBound(int level) {
+        return level < maxRetries ? level : Integer.MAX_VALUE;
+    }
+
+    private LocalDateTime queuedCutoff(LocalDateTime now, int level) {
+        return queuedDeadlineMs > 0 ? minus(now, backoff(queuedDeadlineMs, level)) : NEVER;
+    }
+
+    private LocalDateTime lastActivity(LocalDateTime pickedUpAt, LocalDateTime startedAt) {
+        return pickedUpAt != null ? pickedUpAt : startedAt;
+    }
+
+    private int retriesOf(FileMetadata metadata) {
+        return metadata.getRetryCount() != null ? metadata.getRetryCount() : 0;
+    }
+
+    private long backoff(long deadlineMs, int retries) {
+        return deadlineMs << Math.min(retries, 10);
+    }
+
+    private LocalDateTime minus(LocalDateTime time, long millis) {
+        return time.minusNanos(millis * 1_000_000L);
+    }
+
+    private void count(String name, String stage) {
+        meterRegistry.counter(name, "stage", stage).increment();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.orchestrator.service;
+
+import com.example.orchestrator.repository.FileMetadataRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replay dalla dead-letter queue con status.write-behind.enabled: l'esito della fase
+ * ripresa deve essere accettato anche se il buffer aveva visto il documento FAILED
+ */
+@ExtendWith(MockitoExtension.class)
+class FileStatusStateMachineTest {
+
+    private static final String FILE_ID = "file-1";
+
+    @Mock
+    private FileMetadataRepository repository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private StatusWriteBehindBuffer writeBehind;
+    private FileStatusStateMachine stateMachine;
+
+    @BeforeEach
+    void setUp() {
+        writeBehind = new StatusWriteBehindBuffer(jdbcTemplate, transactionTemplate);
+        ReflectionTestUtils.setField(writeBehind, "enabled", true);
+        ReflectionTestUtils.setField(writeBehind, "flushIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(writeBehind, "maxPending", 500);
+        ReflectionTestUtils.setField(writeBehind, "knownStatusCacheSize", 100);
+        writeBehind.start();
+        stateMachine = new FileStatusStateMachine(repository, writeBehind, eventPublisher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.stop();
+    }
+
+    @Test
+    void extractionCompletedIsAcceptedAfterReplay() {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq(FILE_ID)))
+                .thenReturn(List.of(FileStatusStateMachine.UPLOADED));
+        assertThat(stateMachine.extractionFailed(FILE_ID, "Tika timeout")).isTrue();
+
+        when(repository.reopenExtraction(eq(FILE_ID), eq(FileStatusStateMachine.FAILED), any())).thenReturn(1);
+        assertThat(stateMachine.extractionReopened(FILE_ID)).isTrue();
+
+        clearInvocations(jdbcTemplate);
+        assertThat(stateMachine.extractionCompleted(FILE_ID, null, 42L, "identity")).isTrue();
+        verify(jdbcTemplate, never()).queryForList(anyString(), eq(String.class), any());
+    }
+
+    @Test
+    void indexingCompletedIsAcceptedAfterReplay() {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq(FILE_ID)))
+                .thenReturn(List.of(FileStatusStateMachine.EXTRACTED));
+        assertThat(stateMachine.indexingFailed(FILE_ID, "Bulk indexing failed")).isTrue();
+
+        when(repository.reopenIndexing(eq(FILE_ID), eq(FileStatusStateMachine.FAILED), any())).thenReturn(1);
+        assertThat(stateMachine.indexingReopened(FILE_ID)).isTrue();
+
+        clearInvocations(jdbcTemplate);
+        assertThat(stateMachine.indexingCompleted(FILE_ID)).isTrue();
+        verify(jdbcTemplate, never()).queryForList(anyString(), eq(String.class), any());
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.ui.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class DocumentPageDto {
+    private List<FileMetadataDto> items;
+    private String nextCursor;
+}
@@ -0,0 +1,10 @@
+package com.example.ui.dto;
+
+import lombok.Data;
+
+@Data
+public class DocumentStatusEventDto {
+    private String fileId;
+    private String fromStatus;
+    private String toStatus;
+}
@@ -0,0 +1,126 @@
+package com.example.ui.service;
+
+import com.example.ui.dto.DocumentStatusEventDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Single shared subscription to the orchestrator status event stream (SSE).
+ * Views register a listener instead of polling the document list.
+ * The connection is opened with the first listener and re-opened on failure.
+ */
+@Slf4j
+@Service
+public class DocumentEventsClient {
+
+    private final List<Consumer<DocumentStatusEventDto>> listeners = new CopyOnWriteArrayList<>();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ObjectMapper objectMapper;
+    private final URI eventsUri;
+    private final long reconnectDelayMs;
+    private Thread reader;
+    private volatile boolean running = true;
+
+    public DocumentEventsClient(
+            ObjectMapper objectMapper,
+            @Value("${orchestrator.url}") String orchestratorUrl,
+            @Value("${orchestrator.events.reconnect-delay-ms:5000}") long reconnectDelayMs) {
+        this.objectMapper = objectMapper;
+        this.eventsUri = URI.create(orchestratorUrl + "/api/documents/events");
+        this.reconnectDelayMs = reconnectDelayMs;
+    }
+
+    public void addListener(Consumer<DocumentStatusEventDto> listener) {
+        listeners.add(listener);
+        startIfNeeded();
+    }
+
+    public void removeListener(Consumer<DocumentStatusEventDto> listener) {
+        listeners.remove(listener);
+    }
+
+    private synchronized void startIfNeeded() {
+        if (reader == null) {
+            reader = new Thread(this::readLoop, "orchestrator-events");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void readLoop() {
+        while (running) {
+            HttpRequest request = HttpRequest.newBuilder(eventsUri)
+                    .header("Accept", "text/event-stream")
+                    .GET()
+                    .build();
+            try {
+                HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+                if (response.statusCode() == 200) {
+                    log.info("Connected to orchestrator event stream");
+                    try (Stream<String> lines = response.body()) {
+                        lines.forEach(this::onLine);
+                    }
+                } else {
+                    log.warn("Orchestrator event stream returned HTTP {}", response.statusCode());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.debug("Orchestrator event stream unavailable: {}", e.getMessage());
+            }
+            sleepBeforeReconnect();
+        }
+    }
+
+    private void onLine(String line) {
+        // Only data lines matter: "event:" is always "status", ":" lines are heartbeats
+        if (!line.startsWith("data:") || listeners.isEmpty()) {
+            return;
+        }
+        try {
+            DocumentStatusEventDto event = objectMapper.readValue(line.substring(5).trim(), DocumentStatusEventDto.class);
+            for (Consumer<DocumentStatusEventDto> listener : listeners) {
+                try {
+                    listener.accept(event);
+                } catch (Exception e) {
+                    log.warn("Document event listener failed: {}", e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Invalid document event: {}", line);
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(reconnectDelayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (reader != null) {
+            reader.interrupt();
+        }
+    }
+}
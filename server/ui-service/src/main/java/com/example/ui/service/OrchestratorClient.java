@@ -1,5 +1,6 @@
 package com.example.ui.service;
 
+import com.example.ui.dto.DocumentPageDto;
 import com.example.ui.dto.FileMetadataDto;
 import com.example.ui.dto.SearchResultDto;
 import lombok.extern.slf4j.Slf4j;
@@ -16,6 +17,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Slf4j
 @Service
@@ -55,13 +57,19 @@ public class OrchestratorClient {
     }
 
     /**
-     * List all documents
+     * List documents (one page, newest first)
+     *
+     * @param cursor nextCursor of the previous page, null for the first page
      */
-    public List<FileMetadataDto> listDocuments() {
+    public DocumentPageDto listDocuments(String cursor, int limit) {
         return restClient.get()
-                .uri("/api/documents")
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/documents")
+                        .queryParam("limit", limit)
+                        .queryParamIfPresent("cursor", Optional.ofNullable(cursor))
+                        .build())
                 .retrieve()
-                .body(new ParameterizedTypeReference<List<FileMetadataDto>>() {});
+                .body(DocumentPageDto.class);
     }
 
     /**
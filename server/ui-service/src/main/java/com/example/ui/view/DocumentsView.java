@@ -1,7 +1,13 @@
 package com.example.ui.view;
 
+import com.example.ui.dto.DocumentPageDto;
+import com.example.ui.dto.DocumentStatusEventDto;
 import com.example.ui.dto.FileMetadataDto;
+import com.example.ui.service.DocumentEventsClient;
 import com.example.ui.service.OrchestratorClient;
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.DetachEvent;
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.button.ButtonVariant;
 import com.vaadin.flow.component.grid.Grid;
@@ -18,7 +24,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Slf4j
 @Route(value = "", layout = MainLayout.class)
@@ -26,11 +34,18 @@ import java.util.List;
 public class DocumentsView extends VerticalLayout {
 
     private final OrchestratorClient orchestratorClient;
+    private final DocumentEventsClient eventsClient;
+    private Consumer<DocumentStatusEventDto> statusListener;
     private final Grid<FileMetadataDto> grid;
+    private final Button loadMoreButton;
+    private final List<FileMetadataDto> documents = new ArrayList<>();
+    private String nextCursor;
+    private static final int PAGE_SIZE = 50;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
 
-    public DocumentsView(OrchestratorClient orchestratorClient) {
+    public DocumentsView(OrchestratorClient orchestratorClient, DocumentEventsClient eventsClient) {
         this.orchestratorClient = orchestratorClient;
+        this.eventsClient = eventsClient;
 
         setSpacing(true);
         setPadding(true);
@@ -56,9 +71,41 @@ public class DocumentsView extends VerticalLayout {
         configureGrid();
         add(grid);
 
+        loadMoreButton = new Button("⬇️ Load more", e -> loadNextPage());
+        add(loadMoreButton);
+
         refreshGrid();
     }
 
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        UI ui = attachEvent.getUI();
+        // Status changes are pushed by the orchestrator (SSE) instead of polling
+        statusListener = event -> ui.access(() -> applyStatusEvent(event));
+        eventsClient.addListener(statusListener);
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        eventsClient.removeListener(statusListener);
+        super.onDetach(detachEvent);
+    }
+
+    private void applyStatusEvent(DocumentStatusEventDto event) {
+        for (FileMetadataDto file : documents) {
+            if (file.getId().equals(event.getFileId())) {
+                if (event.getToStatus() == null) {
+                    documents.remove(file);
+                } else {
+                    file.setUploadStatus(event.getToStatus());
+                }
+                grid.getDataProvider().refreshAll();
+                return;
+            }
+        }
+    }
+
     private VerticalLayout createUploadSection() {
         MemoryBuffer buffer = new MemoryBuffer();
         Upload upload = new Upload(buffer);
@@ -232,9 +279,18 @@ public class DocumentsView extends VerticalLayout {
     }
 
     private void refreshGrid() {
+        documents.clear();
+        nextCursor = null;
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
         try {
-            List<FileMetadataDto> documents = orchestratorClient.listDocuments();
+            DocumentPageDto page = orchestratorClient.listDocuments(nextCursor, PAGE_SIZE);
+            documents.addAll(page.getItems());
+            nextCursor = page.getNextCursor();
             grid.setItems(documents);
+            loadMoreButton.setVisible(nextCursor != null);
         } catch (Exception e) {
             log.error("Error loading documents", e);
             Notification.show("Error loading documents: " + e.getMessage(), 3000, Notification.Position.TOP_CENTER)